@@ -3,17 +3,33 @@ package me.athish.tachyon;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -22,12 +38,14 @@ import java.util.stream.Collectors;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.Server;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -61,6 +79,58 @@ public class BlockChanger {
 	private static final Map<String, Object> NMS_BLOCK_NAMES = new HashMap<>();
 	private static final Map<World, Object> NMS_WORLDS = new HashMap<>();
 	private static final Map<String, Object> NMS_WORLD_NAMES = new HashMap<>();
+	/**
+	 * Packed storage class -> {raw long[] getter, mask getter}, empty for
+	 * storages that hold a single value
+	 */
+	private static final Map<Class<?>, MethodHandle[]> BIT_STORAGE_FIELDS = new HashMap<>();
+	/**
+	 * Sections changed without notifying the clients, by world and chunk, sent by
+	 * {@link #sendSectionChanges()}
+	 */
+	private static final Map<World, Map<Long, ChunkChanges>> CHANGED_CHUNKS = new HashMap<>();
+	/**
+	 * Changed blocks in a chunk past which the whole chunk is sent again instead of
+	 * its changed blocks
+	 */
+	private static final int CHUNK_RESEND_THRESHOLD = 1024;
+	/**
+	 * Section states read by
+	 * {@link #removeUnchanged(World, int, int, int, Material[])}, only used on the
+	 * main thread
+	 */
+	private static final int[] CURRENT_STATES = new int[4096];
+	/**
+	 * Whether {@link #SECTION_NON_EMPTY_COUNT} matched the blocks of an unpacked
+	 * section, 1 once it did, -1 once it didn't, only used on the main thread
+	 */
+	private static int nonEmptyCountChecked;
+	/**
+	 * Chunks changed without updating their light, by world and chunk, relit
+	 * within a share of the budget of every tick of the workload queue
+	 */
+	private static final Map<World, Map<Long, ChunkChanges>> RELIGHT_CHUNKS = new LinkedHashMap<>();
+	/**
+	 * Chunks handed to the light engine at once on Paper, see
+	 * {@link #relightChunks(long)}
+	 */
+	private static final int RELIGHT_BATCH = 16;
+	/**
+	 * Chunks requested ahead of the chunk a job is waiting for
+	 */
+	private static final int CHUNK_PRELOAD_AHEAD = 32;
+	/**
+	 * Chunks loaded synchronously per tick when the server can't load them
+	 * asynchronously
+	 */
+	private static final int SYNC_CHUNK_LOADS_PER_TICK = 2;
+	private static int syncChunkLoads;
+	/**
+	 * Preview blocks sent to each player during the current tick, only used on
+	 * the main thread
+	 */
+	private static final Map<Player, Integer> PREVIEW_BLOCKS_SENT = new HashMap<>();
+	private static volatile int previewBlocksPerTick = 8192;
 	private static final MethodHandle WORLD_GET_HANDLE;
 	/**
 	 * <p>
@@ -159,6 +229,160 @@ public class BlockChanger {
 	private static final WorkloadRunnable WORKLOAD_RUNNABLE;
 	private static final JavaPlugin PLUGIN;
 	private static final Object AIR_BLOCK_DATA;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<ChunkSection>}.blockIds</i> or
+	 * <i>{@literal<ChunkSection>}.states</i> (1.13+)
+	 */
+	private static final MethodHandle SECTION_STATES;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<ChunkSection>}.nonEmptyBlockCount</i> as an int
+	 * (1.13+), may be null
+	 */
+	private static final MethodHandle SECTION_NON_EMPTY_COUNT;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<DataPaletteBlock>}.data</i>, 1.18+ keeps the
+	 * storage and palette of a palette container in a separate object. Null on
+	 * older versions.
+	 */
+	private static final MethodHandle PALETTE_CONTAINER_DATA;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<DataPaletteBlock>}.storage</i>, the packed palette
+	 * indices
+	 */
+	private static final MethodHandle PALETTE_CONTAINER_STORAGE;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<DataPaletteBlock>}.palette</i>
+	 */
+	private static final MethodHandle PALETTE_CONTAINER_PALETTE;
+	/**
+	 * <p>
+	 * Invoked parameters ->
+	 * <i>{@literal<DataPalette>}.valueFor({@literal<int>})</i>
+	 */
+	private static final MethodHandle PALETTE_VALUE_FOR;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>CraftBlockData.fromData({@literal<IBlockData>})</i>
+	 */
+	private static final MethodHandle CRAFT_BLOCK_DATA_FROM_DATA;
+	/**
+	 * <p>
+	 * Invoked parameters ->
+	 * <i>{@literal<org.bukkit.block.data.BlockData>}.getMaterial()</i>
+	 */
+	private static final MethodHandle BLOCK_DATA_GET_MATERIAL;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new PacketPlayOutMultiBlockChange({@literal<int>},
+	 * {@literal<short[]>}, {@literal<Chunk>})</i> or, on 1.16.2+,
+	 * <i>new PacketPlayOutMultiBlockChange({@literal<SectionPosition>},
+	 * {@literal<ShortSet>}, {@literal<ChunkSection>})</i>
+	 */
+	private static final MethodHandle MULTI_BLOCK_CHANGE;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new PacketPlayOutMultiBlockChange()</i>, filled through
+	 * {@link #MULTI_BLOCK_CHANGE_CHUNK} and {@link #MULTI_BLOCK_CHANGE_INFOS}
+	 * with changes built by {@link #MULTI_BLOCK_CHANGE_INFO} (1.8 - 1.16.1)
+	 */
+	private static final MethodHandle MULTI_BLOCK_CHANGE_EMPTY;
+	private static final MethodHandle MULTI_BLOCK_CHANGE_CHUNK;
+	private static final MethodHandle MULTI_BLOCK_CHANGE_INFOS;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>{@literal<PacketPlayOutMultiBlockChange>}.new
+	 * MultiBlockChangeInfo({@literal<short>}, {@literal<IBlockData>})</i>
+	 * (1.8 - 1.16.1)
+	 */
+	private static final MethodHandle MULTI_BLOCK_CHANGE_INFO;
+	private static final Class<?> MULTI_BLOCK_CHANGE_INFO_CLASS;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>SectionPosition.of({@literal<int>},
+	 * {@literal<int>}, {@literal<int>})</i> (1.16.2+)
+	 */
+	private static final MethodHandle SECTION_POSITION_OF;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new ShortArraySet({@literal<short[]>},
+	 * {@literal<int>})</i> (1.16.2+)
+	 */
+	private static final MethodHandle SHORT_SET;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<WorldServer>}.getLightEngine()</i> (1.14+)
+	 */
+	private static final MethodHandle WORLD_LIGHT_ENGINE;
+	/**
+	 * <p>
+	 * Invoked parameters ->
+	 * <i>{@literal<LightEngine>}.checkBlock({@literal<BlockPosition>})</i> (1.14+)
+	 */
+	private static final MethodHandle LIGHT_ENGINE_CHECK_BLOCK;
+	/**
+	 * <p>
+	 * Invoked parameters ->
+	 * <i>{@literal<LightEngineThreaded>}.relight({@literal<Set<ChunkCoordIntPair>>},
+	 * {@literal<Consumer>}, {@literal<IntConsumer>})</i> (Paper 1.17+), relights
+	 * whole chunks at once, may be null
+	 */
+	private static final MethodHandle LIGHT_ENGINE_RELIGHT;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new ChunkCoordIntPair({@literal<int>},
+	 * {@literal<int>})</i>, only resolved along with {@link #LIGHT_ENGINE_RELIGHT}
+	 * or {@link #MULTI_BLOCK_CHANGE_EMPTY}
+	 */
+	private static final MethodHandle CHUNK_COORD;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<Chunk>}.initLighting()</i>, recomputes the height
+	 * map and sky light of a chunk (before 1.14)
+	 */
+	private static final MethodHandle CHUNK_INIT_LIGHTING;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<Server>}.getAverageTickTime()</i> (Paper), may be
+	 * null
+	 */
+	private static final MethodHandle SERVER_AVERAGE_TICK_TIME;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<World>}.getChunkAtAsync(x, z)</i> (Paper), may be
+	 * null
+	 */
+	private static final MethodHandle WORLD_GET_CHUNK_AT_ASYNC;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<World>}.addPluginChunkTicket(x, z, plugin)</i>
+	 * (1.14+), may be null
+	 */
+	private static final MethodHandle WORLD_ADD_CHUNK_TICKET;
+	/**
+	 * <p>
+	 * Behavior -> <i>{@literal<World>}.removePluginChunkTicket(x, z, plugin)</i>
+	 * (1.14+), may be null
+	 */
+	private static final MethodHandle WORLD_REMOVE_CHUNK_TICKET;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new PacketPlayOutBlockChange({@literal<BlockPosition>},
+	 * {@literal<IBlockData>})</i> (1.17+)
+	 */
+	private static final MethodHandle BLOCK_CHANGE;
+	/**
+	 * <p>
+	 * Invoked parameters -> <i>new PacketPlayOutBlockChange()</i>, filled through
+	 * {@link #BLOCK_CHANGE_POSITION} and {@link #BLOCK_CHANGE_STATE} (1.8 - 1.16)
+	 */
+	private static final MethodHandle BLOCK_CHANGE_EMPTY;
+	private static final MethodHandle BLOCK_CHANGE_POSITION;
+	private static final MethodHandle BLOCK_CHANGE_STATE;
 
 	static {
 
@@ -240,6 +464,20 @@ public class BlockChanger {
 		MethodHandle getNMSTileEntity = null;
 		MethodHandle getSnapshot = null;
 		MethodHandle getSnapshotNBT = null;
+		MethodHandle sectionStates = null;
+		MethodHandle sectionNonEmptyCount = null;
+		MethodHandle paletteContainerData = null;
+		MethodHandle paletteContainerStorage = null;
+		MethodHandle paletteContainerPalette = null;
+		MethodHandle paletteValueFor = null;
+		MethodHandle craftBlockDataFromData = null;
+		MethodHandle blockDataGetMaterial = null;
+		MethodHandle multiBlockChange = null;
+		MethodHandle sectionPositionOf = null;
+		MethodHandle shortSet = null;
+		MethodHandle worldLightEngine = null;
+		MethodHandle lightEngineCheckBlock = null;
+		MethodHandle chunkInitLighting = null;
 
 		// Method names
 		String asBlock = ReflectionUtils.supports(18) || ReflectionUtils.MINOR_NUMBER < 8 ? "a" : "asBlock";
@@ -368,6 +606,209 @@ public class BlockChanger {
 			e.printStackTrace();
 		}
 
+		// Section palette reads, fields are looked up by type as their names differ on
+		// every version. Leaves the handles null when anything is missing.
+		if (ReflectionUtils.supports(13)) {
+			try {
+				Class<?> paletteContainer = ReflectionUtils.getNMSClass("world.level.chunk", "DataPaletteBlock");
+				Class<?> palette = ReflectionUtils.getNMSClass("world.level.chunk", "DataPalette");
+				Class<?> bitStorage = ReflectionUtils.getNMSClass("util", "DataBits");
+				Class<?> craftBlockData = ReflectionUtils.getCraftClass("block.data.CraftBlockData");
+				Class<?> bukkitBlockData = Class.forName("org.bukkit.block.data.BlockData");
+				Class<?> blockDataClass = blockData;
+				// 1.18.0 - 1.18.1 store biomes in a palette container too
+				Field statesField = findField(chunkSection, paletteContainer,
+						field -> field.getGenericType() instanceof ParameterizedType
+								&& Arrays.asList(((ParameterizedType) field.getGenericType()).getActualTypeArguments())
+										.contains(blockDataClass));
+				Class<?> paletteData = paletteContainer;
+				if (findField(paletteContainer, bitStorage, field -> true) == null) {
+					for (Field field : paletteContainer.getDeclaredFields()) {
+						if (Modifier.isStatic(field.getModifiers())
+								|| findField(field.getType(), bitStorage, f -> true) == null)
+							continue;
+						field.setAccessible(true);
+						paletteContainerData = lookup.unreflectGetter(field);
+						paletteData = field.getType();
+						break;
+					}
+				}
+				Field storageField = findField(paletteData, bitStorage, field -> true);
+				// Below 1.18 the global palette is kept next to the current one, which is the
+				// only one that isn't final
+				Field paletteField = findField(paletteData, palette, field -> !Modifier.isFinal(field.getModifiers()));
+				for (Method method : palette.getMethods()) {
+					if (method.getReturnType() == Object.class && method.getParameterCount() == 1
+							&& method.getParameterTypes()[0] == int.class) {
+						paletteValueFor = lookup.unreflect(method);
+						break;
+					}
+				}
+				// The non air block count is looked up by name, as sections hold several
+				// counters of the same type. Left null when missing, sections are then unpacked.
+				try {
+					Field nonEmptyCount = chunkSection.getDeclaredField(
+							ReflectionUtils.v(20, "e").v(17, "f").orElse("nonEmptyBlockCount"));
+					if (!Modifier.isStatic(nonEmptyCount.getModifiers())
+							&& (nonEmptyCount.getType() == short.class || nonEmptyCount.getType() == int.class)) {
+						nonEmptyCount.setAccessible(true);
+						sectionNonEmptyCount = lookup.unreflectGetter(nonEmptyCount)
+								.asType(MethodType.methodType(int.class, Object.class));
+					}
+				} catch (NoSuchFieldException ignored) {
+					// Sections are always unpacked
+				}
+				statesField.setAccessible(true);
+				storageField.setAccessible(true);
+				paletteField.setAccessible(true);
+				sectionStates = lookup.unreflectGetter(statesField);
+				paletteContainerStorage = lookup.unreflectGetter(storageField);
+				paletteContainerPalette = lookup.unreflectGetter(paletteField);
+				craftBlockDataFromData = lookup.findStatic(craftBlockData, "fromData",
+						MethodType.methodType(craftBlockData, blockData));
+				blockDataGetMaterial = lookup.findVirtual(bukkitBlockData, "getMaterial",
+						MethodType.methodType(Material.class));
+			} catch (RuntimeException | ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+				e.printStackTrace();
+				sectionStates = null;
+			}
+		}
+
+		// Multi block change packets, sent per section since 1.16.2. Leaves the handles
+		// null when anything is missing, so changed chunks are sent again as a whole.
+		try {
+			Class<?> multiBlockChangePacket = ReflectionUtils.getNMSClass("network.protocol.game",
+					"PacketPlayOutMultiBlockChange");
+			if (ReflectionUtils.supports(16, 2)) {
+				Class<?> sectionPosition = ReflectionUtils.getNMSClass("core", "SectionPosition");
+				Class<?> shortArraySet = Class.forName("it.unimi.dsi.fastutil.shorts.ShortArraySet");
+				for (Method method : sectionPosition.getMethods()) {
+					if (Modifier.isStatic(method.getModifiers()) && method.getReturnType() == sectionPosition
+							&& Arrays.equals(method.getParameterTypes(),
+									new Class<?>[] { int.class, int.class, int.class })) {
+						sectionPositionOf = lookup.unreflect(method);
+						break;
+					}
+				}
+				for (Constructor<?> constructor : multiBlockChangePacket.getConstructors()) {
+					Class<?>[] parameters = constructor.getParameterTypes();
+					if (parameters.length < 3 || parameters[0] != sectionPosition) continue;
+					multiBlockChange = lookup.unreflectConstructor(constructor);
+					// 1.16.2 - 1.19.4 take whether the client should skip light updates
+					if (parameters.length == 4)
+						multiBlockChange = MethodHandles.insertArguments(multiBlockChange, 3, false);
+					break;
+				}
+				shortSet = lookup.findConstructor(shortArraySet,
+						MethodType.methodType(void.class, short[].class, int.class));
+			} else {
+				multiBlockChange = lookup.findConstructor(multiBlockChangePacket,
+						MethodType.methodType(void.class, int.class, short[].class, chunk));
+			}
+		} catch (RuntimeException | ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+			e.printStackTrace();
+			multiBlockChange = null;
+		}
+
+		// Multi block change packets built from positions and states without reading
+		// the world, for previews before 1.16.2. The packet only reads the chunk when
+		// constructed, so an empty one gets its chunk and changes set instead.
+		MethodHandle multiBlockChangeEmpty = null;
+		MethodHandle multiBlockChangeChunk = null;
+		MethodHandle multiBlockChangeInfos = null;
+		MethodHandle multiBlockChangeInfo = null;
+		Class<?> multiBlockChangeInfoClass = null;
+		MethodHandle legacyChunkCoord = null;
+		if (ReflectionUtils.supports(8) && !ReflectionUtils.supports(16, 2)) {
+			try {
+				Class<?> multiBlockChangePacket = ReflectionUtils.getNMSClass("network.protocol.game",
+						"PacketPlayOutMultiBlockChange");
+				Class<?> chunkCoordIntPair = ReflectionUtils.getNMSClass("world.level", "ChunkCoordIntPair");
+				for (Class<?> inner : multiBlockChangePacket.getDeclaredClasses()) {
+					for (Constructor<?> constructor : inner.getDeclaredConstructors()) {
+						if (!Arrays.equals(constructor.getParameterTypes(),
+								new Class<?>[] { multiBlockChangePacket, short.class, blockData }))
+							continue;
+						constructor.setAccessible(true);
+						multiBlockChangeInfo = lookup.unreflectConstructor(constructor);
+						multiBlockChangeInfoClass = inner;
+					}
+				}
+				for (Field field : multiBlockChangePacket.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) continue;
+					field.setAccessible(true);
+					if (field.getType() == chunkCoordIntPair) multiBlockChangeChunk = lookup.unreflectSetter(field);
+					else if (multiBlockChangeInfoClass != null
+							&& field.getType().getComponentType() == multiBlockChangeInfoClass)
+						multiBlockChangeInfos = lookup.unreflectSetter(field);
+				}
+				if (multiBlockChangeInfo != null && multiBlockChangeChunk != null && multiBlockChangeInfos != null) {
+					multiBlockChangeEmpty = lookup.findConstructor(multiBlockChangePacket,
+							MethodType.methodType(void.class));
+					legacyChunkCoord = lookup.findConstructor(chunkCoordIntPair,
+							MethodType.methodType(void.class, int.class, int.class));
+				}
+			} catch (RuntimeException | NoSuchMethodException | IllegalAccessException e) {
+				e.printStackTrace();
+				legacyChunkCoord = null;
+			}
+		}
+		MULTI_BLOCK_CHANGE_EMPTY = legacyChunkCoord != null ? multiBlockChangeEmpty : null;
+		MULTI_BLOCK_CHANGE_CHUNK = multiBlockChangeChunk;
+		MULTI_BLOCK_CHANGE_INFOS = multiBlockChangeInfos;
+		MULTI_BLOCK_CHANGE_INFO = multiBlockChangeInfo;
+		MULTI_BLOCK_CHANGE_INFO_CLASS = multiBlockChangeInfoClass;
+
+		// Light recalculation. The light engine methods are looked up by signature as
+		// their names differ on every version. Leaves the handles null when anything is
+		// missing, so changed chunks are not relit.
+		try {
+			if (ReflectionUtils.supports(14)) {
+				Class<?> lightEngine = ReflectionUtils.getNMSClass("world.level.lighting", "LightEngine");
+				for (Method method : worldServer.getMethods()) {
+					if (method.getParameterCount() == 0 && lightEngine.isAssignableFrom(method.getReturnType())) {
+						worldLightEngine = lookup.unreflect(method);
+						break;
+					}
+				}
+				for (Method method : lightEngine.getMethods()) {
+					if (method.getReturnType() == void.class
+							&& Arrays.equals(method.getParameterTypes(), new Class<?>[] { blockPosition })) {
+						lightEngineCheckBlock = lookup.unreflect(method);
+						break;
+					}
+				}
+			} else {
+				chunkInitLighting = lookup.findVirtual(chunk, "initLighting", MethodType.methodType(void.class));
+			}
+		} catch (RuntimeException | NoSuchMethodException | IllegalAccessException e) {
+			e.printStackTrace();
+		}
+
+		MethodHandle lightEngineRelight = null;
+		MethodHandle chunkCoord = null;
+		if (ReflectionUtils.supports(17)) {
+			try {
+				Class<?> threadedLightEngine = ReflectionUtils.getNMSClass("server.level", "LightEngineThreaded");
+				for (Method method : threadedLightEngine.getMethods()) {
+					if (Arrays.equals(method.getParameterTypes(),
+							new Class<?>[] { Set.class, Consumer.class, IntConsumer.class })) {
+						lightEngineRelight = lookup.unreflect(method);
+						break;
+					}
+				}
+				if (lightEngineRelight != null) chunkCoord = lookup.findConstructor(
+						ReflectionUtils.getNMSClass("world.level", "ChunkCoordIntPair"),
+						MethodType.methodType(void.class, int.class, int.class));
+			} catch (RuntimeException | NoSuchMethodException | IllegalAccessException ignored) {
+				// Not a Paper server, chunks are relit block by block
+				lightEngineRelight = null;
+			}
+		}
+		LIGHT_ENGINE_RELIGHT = worldLightEngine != null && lightEngineCheckBlock != null && chunkCoord != null
+				? lightEngineRelight : null;
+		CHUNK_COORD = chunkCoord != null ? chunkCoord : legacyChunkCoord;
+
 		WORLD_GET_HANDLE = worldGetHandle;
 		WORLD_GET_CHUNK = worldGetChunk;
 		NMS_ITEM_STACK_COPY = nmsItemStackCopy;
@@ -395,6 +836,87 @@ public class BlockChanger {
 		GET_NMS_TILE_ENTITY = getNMSTileEntity;
 		GET_SNAPSHOT = getSnapshot;
 		GET_SNAPSHOT_NBT = getSnapshotNBT;
+		SECTION_STATES = paletteValueFor != null ? sectionStates : null;
+		SECTION_NON_EMPTY_COUNT = sectionNonEmptyCount;
+		PALETTE_CONTAINER_DATA = paletteContainerData;
+		PALETTE_CONTAINER_STORAGE = paletteContainerStorage;
+		PALETTE_CONTAINER_PALETTE = paletteContainerPalette;
+		PALETTE_VALUE_FOR = paletteValueFor;
+		CRAFT_BLOCK_DATA_FROM_DATA = craftBlockDataFromData;
+		BLOCK_DATA_GET_MATERIAL = blockDataGetMaterial;
+		MULTI_BLOCK_CHANGE = ReflectionUtils.supports(16, 2) && (sectionPositionOf == null || shortSet == null) ? null
+				: multiBlockChange;
+		SECTION_POSITION_OF = sectionPositionOf;
+		SHORT_SET = shortSet;
+		WORLD_LIGHT_ENGINE = lightEngineCheckBlock != null ? worldLightEngine : null;
+		LIGHT_ENGINE_CHECK_BLOCK = worldLightEngine != null ? lightEngineCheckBlock : null;
+		CHUNK_INIT_LIGHTING = chunkInitLighting;
+
+		MethodHandle serverAverageTickTime = null;
+		try {
+			serverAverageTickTime = lookup.findVirtual(Server.class, "getAverageTickTime",
+					MethodType.methodType(double.class));
+		} catch (NoSuchMethodException | IllegalAccessException ignored) {
+			// Not a Paper server, the tick length is measured instead
+		}
+		SERVER_AVERAGE_TICK_TIME = serverAverageTickTime;
+
+		MethodHandle worldGetChunkAtAsync = null;
+		try {
+			worldGetChunkAtAsync = lookup.findVirtual(World.class, "getChunkAtAsync",
+					MethodType.methodType(CompletableFuture.class, int.class, int.class));
+		} catch (NoSuchMethodException | IllegalAccessException ignored) {
+			// Not a Paper server, chunks are loaded synchronously within the budget
+		}
+		WORLD_GET_CHUNK_AT_ASYNC = worldGetChunkAtAsync;
+
+		MethodHandle worldAddChunkTicket = null;
+		MethodHandle worldRemoveChunkTicket = null;
+		try {
+			worldAddChunkTicket = lookup.findVirtual(World.class, "addPluginChunkTicket",
+					MethodType.methodType(boolean.class, int.class, int.class, Plugin.class));
+			worldRemoveChunkTicket = lookup.findVirtual(World.class, "removePluginChunkTicket",
+					MethodType.methodType(boolean.class, int.class, int.class, Plugin.class));
+		} catch (NoSuchMethodException | IllegalAccessException ignored) {
+			// Before 1.14, chunks aren't kept loaded
+		}
+		WORLD_ADD_CHUNK_TICKET = worldRemoveChunkTicket != null ? worldAddChunkTicket : null;
+		WORLD_REMOVE_CHUNK_TICKET = worldRemoveChunkTicket;
+
+		// Single block change packets, built from a position and a state without
+		// reading the world, for previews. Before 1.17 the packet only reads the world
+		// when constructed, so an empty one gets its fields set instead.
+		MethodHandle blockChange = null;
+		MethodHandle blockChangeEmpty = null;
+		MethodHandle blockChangePosition = null;
+		MethodHandle blockChangeState = null;
+		try {
+			if (blockPosition != null) {
+				Class<?> blockChangePacket = ReflectionUtils.getNMSClass("network.protocol.game",
+						"PacketPlayOutBlockChange");
+				if (ReflectionUtils.supports(17)) {
+					blockChange = lookup.findConstructor(blockChangePacket,
+							MethodType.methodType(void.class, blockPosition, blockData));
+				} else {
+					blockChangeEmpty = lookup.findConstructor(blockChangePacket, MethodType.methodType(void.class));
+					for (Field field : blockChangePacket.getDeclaredFields()) {
+						if (Modifier.isStatic(field.getModifiers())) continue;
+						field.setAccessible(true);
+						if (field.getType() == blockPosition) blockChangePosition = lookup.unreflectSetter(field);
+						else if (field.getType() == blockData) blockChangeState = lookup.unreflectSetter(field);
+					}
+					if (blockChangePosition == null || blockChangeState == null) blockChangeEmpty = null;
+				}
+			}
+		} catch (RuntimeException | NoSuchMethodException | IllegalAccessException e) {
+			e.printStackTrace();
+			blockChange = null;
+			blockChangeEmpty = null;
+		}
+		BLOCK_CHANGE = blockChange;
+		BLOCK_CHANGE_EMPTY = blockChangeEmpty;
+		BLOCK_CHANGE_POSITION = blockChangePosition;
+		BLOCK_CHANGE_STATE = blockChangeState;
 
 		BLOCK_DATA_GETTER = ReflectionUtils.supports(13) ? new BlockDataGetter()
 				: ReflectionUtils.supports(8) ? new BlockDataGetterLegacy() : new BlockDataGetterAncient();
@@ -784,10 +1306,9 @@ public class BlockChanger {
 		Object blockPosition = newMutableBlockPosition(location.getWorld(), location.getBlockX(), location.getBlockY(),
 				location.getBlockZ());
 		Object blockData = getBlockData(itemStack);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WORKLOAD_RUNNABLE.addWorkload(new BlockSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
-		WORKLOAD_RUNNABLE.whenComplete(() -> workloadFinishFuture.complete(null));
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job, new BlockSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
+		return finishJob(job);
 	}
 
 	/**
@@ -880,16 +1401,10 @@ public class BlockChanger {
 		Object nmsWorld = getWorld(world);
 		Object blockData = getBlockData(itemStack);
 		Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WorkloadRunnable workloadRunnable = new WorkloadRunnable();
-		BukkitTask workloadTask = Bukkit.getScheduler().runTaskTimer(PLUGIN, workloadRunnable, 1, 1);
-		locations.forEach(location -> workloadRunnable
-				.addWorkload(new BlockSetWorkload(nmsWorld, blockPosition, blockData, location, physics)));
-		workloadRunnable.whenComplete(() -> {
-			workloadFinishFuture.complete(null);
-			workloadTask.cancel();
-		});
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		locations.forEach(location -> WORKLOAD_RUNNABLE.addWorkload(job,
+				new BlockSetWorkload(nmsWorld, blockPosition, blockData, location, physics)));
+		return finishJob(job);
 	}
 
 	/**
@@ -927,39 +1442,11 @@ public class BlockChanger {
 		int x2 = Math.max(loc1.getBlockX(), loc2.getBlockX());
 		int y2 = Math.max(loc1.getBlockY(), loc2.getBlockY());
 		int z2 = Math.max(loc1.getBlockZ(), loc2.getBlockZ());
-		int baseX = x1;
-		int baseY = y1;
-		int baseZ = z1;
-		int sizeX = Math.abs(x2 - x1) + 1;
-		int sizeY = Math.abs(y2 - y1) + 1;
-		int sizeZ = Math.abs(z2 - z1) + 1;
-		int x3 = 0, y3 = 0, z3 = 0;
-		Location location = new Location(world, baseX + x3, baseY + y3, baseZ + z3);
-		int cuboidSize = sizeX * sizeY * sizeZ;
-		Object blockPosition = newMutableBlockPosition(location);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WorkloadRunnable workloadRunnable = new WorkloadRunnable();
-		BukkitTask workloadTask = Bukkit.getScheduler().runTaskTimer(PLUGIN, workloadRunnable, 1, 1);
-		for (int i = 0; i < cuboidSize; i++) {
-			BlockSetWorkload workload = new BlockSetWorkload(nmsWorld, blockPosition, blockData, location.clone(),
-					physics);
-			if (++x3 >= sizeX) {
-				x3 = 0;
-				if (++y3 >= sizeY) {
-					y3 = 0;
-					++z3;
-				}
-			}
-			location.setX(baseX + x3);
-			location.setY(baseY + y3);
-			location.setZ(baseZ + z3);
-			workloadRunnable.addWorkload(workload);
-		}
-		workloadRunnable.whenComplete(() -> {
-			workloadFinishFuture.complete(null);
-			workloadTask.cancel();
-		});
-		return workloadFinishFuture;
+		Object blockPosition = newMutableBlockPosition(new Location(world, x1, y1, z1));
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job,
+				new CuboidSetWorkload(nmsWorld, blockPosition, blockData, x1, y1, z1, x2, y2, z2, physics));
+		return finishJob(job);
 	}
 
 	/**
@@ -1069,10 +1556,9 @@ public class BlockChanger {
 		Object blockPosition = newMutableBlockPosition(location.getWorld(), location.getBlockX(), location.getBlockY(),
 				location.getBlockZ());
 		Object blockData = getBlockData(itemStack);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WORKLOAD_RUNNABLE.addWorkload(new ChunkSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
-		WORKLOAD_RUNNABLE.whenComplete(() -> workloadFinishFuture.complete(null));
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job, new ChunkSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
+		return finishJob(job);
 	}
 
 	/**
@@ -1131,16 +1617,10 @@ public class BlockChanger {
 		Object nmsWorld = getWorld(world);
 		Object blockData = getBlockData(itemStack);
 		Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WorkloadRunnable workloadRunnable = new WorkloadRunnable();
-		BukkitTask workloadTask = Bukkit.getScheduler().runTaskTimer(PLUGIN, workloadRunnable, 1, 1);
-		locations.forEach(location -> workloadRunnable
-				.addWorkload(new ChunkSetWorkload(nmsWorld, blockPosition, blockData, location, physics)));
-		workloadRunnable.whenComplete(() -> {
-			workloadFinishFuture.complete(null);
-			workloadTask.cancel();
-		});
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		locations.forEach(location -> WORKLOAD_RUNNABLE.addWorkload(job,
+				new ChunkSetWorkload(nmsWorld, blockPosition, blockData, location, physics)));
+		return finishJob(job);
 	}
 
 	/**
@@ -1245,10 +1725,9 @@ public class BlockChanger {
 		Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
 		if (blockData == null)
 			throw new NullPointerException("Unable to retrieve block data for the corresponding material.");
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<Void>();
-		WORKLOAD_RUNNABLE.addWorkload(new SectionSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
-		WORKLOAD_RUNNABLE.whenComplete(() -> workloadFinishFuture.complete(null));
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job, new SectionSetWorkload(nmsWorld, blockPosition, blockData, location, physics));
+		return finishJob(job);
 	}
 
 	/**
@@ -1328,16 +1807,10 @@ public class BlockChanger {
 		Object nmsWorld = getWorld(world);
 		Object blockData = getBlockData(itemStack);
 		Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WorkloadRunnable workloadRunnable = new WorkloadRunnable();
-		BukkitTask workloadTask = Bukkit.getScheduler().runTaskTimer(PLUGIN, workloadRunnable, 1, 1);
-		locations.forEach(location -> workloadRunnable
-				.addWorkload(new SectionSetWorkload(nmsWorld, blockPosition, blockData, location, false)));
-		workloadRunnable.whenComplete(() -> {
-			workloadFinishFuture.complete(null);
-			workloadTask.cancel();
-		});
-		return workloadFinishFuture;
+		WorkloadJob job = new WorkloadJob();
+		locations.forEach(location -> WORKLOAD_RUNNABLE.addWorkload(job,
+				new SectionSetWorkload(nmsWorld, blockPosition, blockData, location, false)));
+		return finishJob(job);
 	}
 
 	/**
@@ -1516,81 +1989,1078 @@ public class BlockChanger {
 		int x2 = Math.max(loc1.getBlockX(), loc2.getBlockX());
 		int y2 = Math.max(loc1.getBlockY(), loc2.getBlockY());
 		int z2 = Math.max(loc1.getBlockZ(), loc2.getBlockZ());
-		int baseX = x1;
-		int baseY = y1;
-		int baseZ = z1;
-		int sizeX = Math.abs(x2 - x1) + 1;
-		int sizeY = Math.abs(y2 - y1) + 1;
-		int sizeZ = Math.abs(z2 - z1) + 1;
-		int x3 = 0, y3 = 0, z3 = 0;
-		Location location = new Location(loc1.getWorld(), baseX + x3, baseY + y3, baseZ + z3);
-		int cuboidSize = sizeX * sizeY * sizeZ;
-		Object blockPosition = newMutableBlockPosition(location);
-		CompletableFuture<Void> workloadFinishFuture = new CompletableFuture<>();
-		WorkloadRunnable workloadRunnable = new WorkloadRunnable();
-		BukkitTask workloadTask = Bukkit.getScheduler().runTaskTimer(PLUGIN, workloadRunnable, 1, 1);
-		for (int i = 0; i < cuboidSize; i++) {
-			SectionSetWorkload workload = new SectionSetWorkload(nmsWorld, blockPosition, blockData, location.clone(),
-					physics);
-			if (++x3 >= sizeX) {
-				x3 = 0;
-				if (++y3 >= sizeY) {
-					y3 = 0;
-					++z3;
-				}
-			}
-			location.setX(baseX + x3);
-			location.setY(baseY + y3);
-			location.setZ(baseZ + z3);
-			workloadRunnable.addWorkload(workload);
-		}
-		workloadRunnable.whenComplete(() -> {
-			workloadFinishFuture.complete(null);
-			workloadTask.cancel();
-		});
-		return workloadFinishFuture;
+		Object blockPosition = newMutableBlockPosition(new Location(world, x1, y1, z1));
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job,
+				new SectionCuboidWorkload(nmsWorld, blockPosition, blockData, x1, y1, z1, x2, y2, z2, physics));
+		return finishJob(job);
 	}
 
-	private static Object getSection(Object nmsChunk, Object[] sections, int y) {
-		return BLOCK_UPDATER.getSection(nmsChunk, sections, y);
+	/**
+	 * Changes the blocks of a whole chunk section at once. The chunk, its sections
+	 * and the section index are looked up a single time for all the blocks,
+	 * instead of once per block like {@link #setSectionBlock(Location, Material)}.
+	 * 
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are
+	 * @param physics  whether physics should be applied or not
+	 */
+	public static void setSection(World world, int chunkX, int sectionY, int chunkZ, Material[] blocks,
+			boolean physics) {
+		setSection(world, chunkX, sectionY, chunkZ, blocks, physics, false);
 	}
 
-	private static Object[] getSections(Object nmsChunk) {
-		try {
-			return (Object[]) CHUNK_GET_SECTIONS.invoke(nmsChunk);
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
-		return null;
+	/**
+	 * Has the same behavior as
+	 * {@link #setSection(World, int, int, int, Material[], boolean)} without
+	 * physics, but doesn't notify the clients for every block. The changed blocks
+	 * are recorded instead and sent with one multi block change packet per
+	 * section, or the whole chunk past {@value #CHUNK_RESEND_THRESHOLD} changed
+	 * blocks, by {@link #sendSectionChanges()}. That happens at the end of every
+	 * tick of the workload queue.
+	 * <p>
+	 * Light is not updated block by block either, the changed chunks are relit
+	 * within a share of the budget of the workload queue, see
+	 * {@link #relightChunks(long)}.
+	 * 
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are
+	 */
+	public static void setSectionBatched(World world, int chunkX, int sectionY, int chunkZ, Material[] blocks) {
+		setSection(world, chunkX, sectionY, chunkZ, blocks, false, true);
 	}
 
-	private static void setTypeChunkSection(Object chunkSection, int x, int y, int z, Object blockData) {
-		try {
-			CHUNK_SECTION_SET_TYPE.invoke(chunkSection, x, y, z, blockData);
-		} catch (Throwable e) {
-			e.printStackTrace();
+	private static void setSection(World world, int chunkX, int sectionY, int chunkZ, Material[] blocks,
+			boolean physics, boolean batched) {
+		Object nmsWorld = getWorld(world);
+		int baseX = chunkX << 4;
+		int baseY = sectionY << 4;
+		int baseZ = chunkZ << 4;
+		Object nmsChunk = getChunkAt(nmsWorld, baseX, baseZ);
+		Object[] sections = getSections(nmsChunk);
+		Object section = getSection(nmsChunk, sections, baseY);
+		Object blockPosition = newMutableBlockPosition(world, baseX, baseY, baseZ);
+		BitSet changed = batched ? changedChunk(world, chunkX, chunkZ).section(sectionY) : null;
+		Material lastMaterial = null;
+		Object blockData = null;
+		for (int i = 0; i < 4096; i++) {
+			Material material = blocks[i];
+			if (material == null) continue;
+			if (material != lastMaterial) {
+				blockData = getBlockData(material);
+				if (blockData == null)
+					throw new NullPointerException("Unable to retrieve block data for the corresponding material.");
+				lastMaterial = material;
+			}
+			int j = i & 15;
+			int k = i >> 8;
+			int l = (i >> 4) & 15;
+			setBlockPosition(blockPosition, baseX + j, baseY + k, baseZ + l);
+			removeIfTileEntity(nmsWorld, blockPosition);
+			setTypeChunkSection(section, j, k, l, blockData);
+			if (batched) {
+				changed.set(i);
+			} else {
+				updateBlock(nmsWorld, blockPosition, blockData, physics);
+			}
 		}
 	}
 
-	private static void setTypeAndData(Object nmsWorld, Object blockPosition, Object blockData, int physics) {
-		try {
-			SET_TYPE_AND_DATA.invoke(nmsWorld, blockPosition, blockData, physics);
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Has the same behavior as
+	 * {@link #setSection(World, int, int, int, Material[], boolean)} but changes
+	 * the section on the main thread through the workload queue
+	 * 
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are. Must not be modified afterwards.
+	 * @param physics  whether physics should be applied or not
+	 */
+	public static CompletableFuture<Void> setSectionAsynchronously(World world, int chunkX, int sectionY, int chunkZ,
+			Material[] blocks, boolean physics) {
+		WorkloadJob job = new WorkloadJob();
+		WORKLOAD_RUNNABLE.addWorkload(job,
+				new SectionBatchWorkload(world, chunkX, sectionY, chunkZ, blocks, physics, false));
+		return finishJob(job);
 	}
 
-	private static void setType(Object chunk, Object blockPosition, Object blockData, boolean physics) {
-		BLOCK_UPDATER.setType(chunk, blockPosition, blockData, physics);
+	/**
+	 * Has the same behavior as
+	 * {@link #setSectionBatched(World, int, int, int, Material[])} but changes the
+	 * section on the main thread through the workload queue
+	 * 
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are. Must not be modified afterwards.
+	 */
+	public static CompletableFuture<Void> setSectionBatchedAsynchronously(World world, int chunkX, int sectionY,
+			int chunkZ, Material[] blocks) {
+		WorkloadJob job = new WorkloadJob();
+		setSectionBatchedAsynchronously(job, world, chunkX, sectionY, chunkZ, blocks);
+		return finishJob(job);
 	}
 
-	private static Object getChunkAt(Object world, Location loc) {
-		try {
-			return WORLD_GET_CHUNK.invoke(world, loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
-		} catch (Throwable e) {
-			e.printStackTrace();
+	/**
+	 * Has the same behavior as
+	 * {@link #setSectionBatchedAsynchronously(World, int, int, int, Material[])}
+	 * but queues the section in the given job, behind the workloads already queued
+	 * in it
+	 * 
+	 * @param job      job sharing the workload queue with the other jobs
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are. Must not be modified afterwards.
+	 */
+	public static void setSectionBatchedAsynchronously(WorkloadJob job, World world, int chunkX,
+			int sectionY, int chunkZ, Material[] blocks) {
+		WORKLOAD_RUNNABLE.addWorkload(job,
+				new SectionBatchWorkload(world, chunkX, sectionY, chunkZ, blocks, false, true));
+	}
+
+	/**
+	 * Writes the prepared blocks of a section directly into it, recording the
+	 * changes for {@link #sendSectionChanges()} like
+	 * {@link #setSectionBatched(World, int, int, int, Material[])}. Must be called
+	 * on the main thread.
+	 * 
+	 * @param world    world where the section is located
+	 * @param commands writes prepared off the main thread
+	 */
+	static void setSectionCommands(World world, SectionCommands commands) {
+		Object nmsWorld = getWorld(world);
+		int baseX = commands.chunkX << 4;
+		int baseY = commands.sectionY << 4;
+		int baseZ = commands.chunkZ << 4;
+		Object nmsChunk = getChunkAt(nmsWorld, baseX, baseZ);
+		Object section = getSection(nmsChunk, getSections(nmsChunk), baseY);
+		Object blockPosition = newMutableBlockPosition(world, baseX, baseY, baseZ);
+		BitSet changed = changedChunk(world, commands.chunkX, commands.chunkZ).section(commands.sectionY);
+		char[] indices = commands.indices;
+		Object[] states = commands.states;
+		for (int i = 0, size = commands.size(); i < size; i++) {
+			int index = indices[i];
+			int j = index & 15;
+			int k = index >> 8;
+			int l = (index >> 4) & 15;
+			setBlockPosition(blockPosition, baseX + j, baseY + k, baseZ + l);
+			removeIfTileEntity(nmsWorld, blockPosition);
+			setTypeChunkSection(section, j, k, l, states[i]);
+			changed.set(index);
 		}
-		return null;
+	}
+
+	/**
+	 * Sends the blocks changed by
+	 * {@link #setSectionBatched(World, int, int, int, Material[])} and
+	 * {@link #replaceSection(World, int, int, int, Object)} since the last call to
+	 * the players within view distance. Sections get one multi block change packet
+	 * each, chunks with more than {@value #CHUNK_RESEND_THRESHOLD} changed blocks
+	 * or a replaced section are sent again as a whole.
+	 * <p>
+	 * Called at the end of every tick of the workload queue, has to be called on
+	 * the main thread.
+	 */
+	public static void sendSectionChanges() {
+		if (CHANGED_CHUNKS.isEmpty()) return;
+		int viewDistance = Bukkit.getViewDistance();
+		for (Map.Entry<World, Map<Long, ChunkChanges>> entry : CHANGED_CHUNKS.entrySet()) {
+			World world = entry.getKey();
+			Object nmsWorld = getWorld(world);
+			List<Player> players = world.getPlayers();
+			for (ChunkChanges changes : entry.getValue().values()) {
+				if (changes.resend || MULTI_BLOCK_CHANGE == null || changes.count() > CHUNK_RESEND_THRESHOLD) {
+					world.refreshChunk(changes.chunkX, changes.chunkZ);
+					queueRelight(world, changes);
+					continue;
+				}
+				Object[] packets = multiBlockChanges(nmsWorld, changes);
+				queueRelight(world, changes);
+				if (packets.length == 0) continue;
+				for (Player player : players) {
+					Location location = player.getLocation();
+					if (Math.abs((location.getBlockX() >> 4) - changes.chunkX) > viewDistance
+							|| Math.abs((location.getBlockZ() >> 4) - changes.chunkZ) > viewDistance)
+						continue;
+					ReflectionUtils.sendPacket(player, packets);
+				}
+			}
+		}
+		CHANGED_CHUNKS.clear();
+	}
+
+	/**
+	 * Relights the chunks changed by
+	 * {@link #setSectionBatched(World, int, int, int, Material[])} and
+	 * {@link #replaceSection(World, int, int, int, Object)} until the given time. A
+	 * chunk changed over several ticks is only relit once.
+	 * <p>
+	 * On Paper 1.17+ the changed chunks are handed to the light engine of the
+	 * server {@value #RELIGHT_BATCH} at a time, which relights them as whole chunks
+	 * off the main thread and sends the light to the clients. Other 1.14+ servers
+	 * get the changed blocks checked by their light engine one section at a time,
+	 * so a chunk with many changed sections is relit over several ticks. Older
+	 * versions recompute the height map and sky light of the whole chunk in one
+	 * pass and send the chunk again, block light is left as is.
+	 * <p>
+	 * Called by the workload queue every tick with its share of the time budget,
+	 * has to be called on the main thread. At least one batch or section is relit
+	 * per call, so relighting keeps going however late the call is.
+	 * 
+	 * @param stopTime {@link System#nanoTime()} after which no more chunk is relit
+	 */
+	public static void relightChunks(long stopTime) {
+		boolean relit = false;
+		Iterator<Map.Entry<World, Map<Long, ChunkChanges>>> worlds = RELIGHT_CHUNKS.entrySet().iterator();
+		while (worlds.hasNext() && (!relit || System.nanoTime() <= stopTime)) {
+			Map.Entry<World, Map<Long, ChunkChanges>> entry = worlds.next();
+			Map<Long, ChunkChanges> chunks = entry.getValue();
+			if (LIGHT_ENGINE_RELIGHT != null) {
+				while (!chunks.isEmpty() && (!relit || System.nanoTime() <= stopTime)) {
+					relightChunks(entry.getKey(), chunks);
+					relit = true;
+				}
+			} else {
+				Iterator<ChunkChanges> iterator = chunks.values().iterator();
+				while (iterator.hasNext() && (!relit || System.nanoTime() <= stopTime)) {
+					if (relightChunk(entry.getKey(), iterator.next(), stopTime)) iterator.remove();
+					relit = true;
+				}
+			}
+			if (chunks.isEmpty()) worlds.remove();
+		}
+	}
+
+	/**
+	 * Takes the next {@value #RELIGHT_BATCH} changed chunks of a world and hands
+	 * them to the light engine in one batch
+	 */
+	private static void relightChunks(World world, Map<Long, ChunkChanges> changes) {
+		Set<Object> chunks = new HashSet<>(RELIGHT_BATCH * 2);
+		Iterator<ChunkChanges> iterator = changes.values().iterator();
+		try {
+			while (iterator.hasNext() && chunks.size() < RELIGHT_BATCH) {
+				ChunkChanges changed = iterator.next();
+				iterator.remove();
+				chunks.add(CHUNK_COORD.invoke(changed.chunkX, changed.chunkZ));
+			}
+			Object lightEngine = WORLD_LIGHT_ENGINE.invoke(getWorld(world));
+			LIGHT_ENGINE_RELIGHT.invoke(lightEngine, chunks, (Consumer<Object>) chunk -> {
+			}, (IntConsumer) count -> {
+			});
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void queueRelight(World world, ChunkChanges changes) {
+		if (LIGHT_ENGINE_CHECK_BLOCK == null && CHUNK_INIT_LIGHTING == null) return;
+		ChunkChanges queued = RELIGHT_CHUNKS.computeIfAbsent(world, w -> new LinkedHashMap<>())
+				.putIfAbsent(chunkKey(changes.chunkX, changes.chunkZ), changes);
+		if (queued == null || queued == changes) return;
+		changes.sections.forEach((sectionY, changed) -> queued.section(sectionY).or(changed));
+	}
+
+	/**
+	 * Relights the changed sections of a chunk one at a time until the given time,
+	 * at least one section per call. Relit sections are removed from the changes.
+	 *
+	 * @return whether the whole chunk was relit
+	 */
+	private static boolean relightChunk(World world, ChunkChanges changes, long stopTime) {
+		Object nmsWorld = getWorld(world);
+		try {
+			if (CHUNK_INIT_LIGHTING != null) {
+				CHUNK_INIT_LIGHTING.invoke(getChunkAt(nmsWorld, changes.chunkX << 4, changes.chunkZ << 4));
+				world.refreshChunk(changes.chunkX, changes.chunkZ);
+				return true;
+			}
+			Object lightEngine = WORLD_LIGHT_ENGINE.invoke(nmsWorld);
+			Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
+			int baseX = changes.chunkX << 4;
+			int baseZ = changes.chunkZ << 4;
+			boolean relit = false;
+			Iterator<Map.Entry<Integer, BitSet>> sections = changes.sections.entrySet().iterator();
+			while (sections.hasNext() && (!relit || System.nanoTime() <= stopTime)) {
+				Map.Entry<Integer, BitSet> entry = sections.next();
+				sections.remove();
+				int baseY = entry.getKey() << 4;
+				BitSet changed = entry.getValue();
+				for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+					setBlockPosition(blockPosition, baseX + (i & 15), baseY + (i >> 8), baseZ + ((i >> 4) & 15));
+					LIGHT_ENGINE_CHECK_BLOCK.invoke(lightEngine, blockPosition);
+				}
+				relit = true;
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return true;
+		}
+		return changes.sections.isEmpty();
+	}
+
+	private static long chunkKey(int chunkX, int chunkZ) {
+		return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	private static ChunkChanges changedChunk(World world, int chunkX, int chunkZ) {
+		return CHANGED_CHUNKS.computeIfAbsent(world, w -> new HashMap<>()).computeIfAbsent(chunkKey(chunkX, chunkZ),
+				key -> new ChunkChanges(chunkX, chunkZ));
+	}
+
+	/**
+	 * Builds the multi block change packets of a chunk, reading the blocks from
+	 * its sections as they are now.
+	 */
+	private static Object[] multiBlockChanges(Object nmsWorld, ChunkChanges changes) {
+		Object nmsChunk = getChunkAt(nmsWorld, changes.chunkX << 4, changes.chunkZ << 4);
+		Object[] sections = ReflectionUtils.supports(16, 2) ? getSections(nmsChunk) : null;
+		List<Object> packets = new ArrayList<>(changes.sections.size());
+		for (Map.Entry<Integer, BitSet> entry : changes.sections.entrySet()) {
+			int sectionY = entry.getKey();
+			BitSet changed = entry.getValue();
+			short[] positions = new short[changed.cardinality()];
+			if (positions.length == 0) continue;
+			int n = 0;
+			for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+				positions[n++] = multiBlockPosition(i, sectionY);
+			}
+			try {
+				packets.add(ReflectionUtils.supports(16, 2)
+						? MULTI_BLOCK_CHANGE.invoke(SECTION_POSITION_OF.invoke(changes.chunkX, sectionY, changes.chunkZ),
+								SHORT_SET.invoke(positions, positions.length),
+								getSection(nmsChunk, sections, sectionY << 4))
+						: MULTI_BLOCK_CHANGE.invoke(positions.length, positions, nmsChunk));
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		return packets.toArray();
+	}
+
+	/**
+	 * Packs a position of a section, in y, z, x order, the way multi block change
+	 * packets expect it. Positions are relative to the section since 1.16.2, to
+	 * the chunk before.
+	 */
+	private static short multiBlockPosition(int index, int sectionY) {
+		int x = index & 15;
+		int y = index >> 8;
+		int z = (index >> 4) & 15;
+		return ReflectionUtils.supports(16, 2) ? (short) (x << 8 | z << 4 | y)
+				: (short) (x << 12 | z << 8 | (sectionY << 4) + y);
+	}
+
+	/**
+	 * @return whether {@link #newSection(World, int, Material[])} is supported on
+	 *         this version (before 1.18)
+	 */
+	public static boolean canReplaceSections() {
+		return CHUNK_SECTION != null;
+	}
+
+	/**
+	 * Builds a complete chunk section holding the given blocks, ready to be
+	 * swapped in with {@link #replaceSection(World, int, int, int, Object)}. The
+	 * section is not attached to any chunk yet, so it can be built off the main
+	 * thread, which moves the palette and block count work away from the tick.
+	 * <p>
+	 * Lighting is not computed here, the section is relit once swapped in, see
+	 * {@link #relightChunks(long)}.
+	 *
+	 * @param world    world the section is meant for
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param blocks   4096 materials in y, z, x order, without null entries
+	 * @return the nms chunk section, or null if sections cannot be replaced on
+	 *         this version or a block is missing
+	 */
+	public static @Nullable Object newSection(World world, int sectionY, Material[] blocks) {
+		if (CHUNK_SECTION == null) return null;
+		Object section;
+		try {
+			section = ReflectionUtils.supports(14) ? CHUNK_SECTION.invoke(sectionY << 4)
+					: CHUNK_SECTION.invoke(sectionY << 4, world.getEnvironment() == World.Environment.NORMAL);
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return null;
+		}
+		Material lastMaterial = null;
+		Object blockData = null;
+		for (int i = 0; i < 4096; i++) {
+			Material material = blocks[i];
+			if (material == null) return null;
+			if (material != lastMaterial) {
+				blockData = getBlockData(material);
+				if (blockData == null)
+					throw new NullPointerException("Unable to retrieve block data for the corresponding material.");
+				lastMaterial = material;
+			}
+			setTypeChunkSection(section, i & 15, i >> 8, (i >> 4) & 15, blockData);
+		}
+		return section;
+	}
+
+	/**
+	 * Swaps a section built by {@link #newSection(World, int, Material[])} into
+	 * its chunk in a single array write instead of changing its 4096 blocks one
+	 * by one. Tile entities of the replaced section are removed and the chunk is
+	 * sent again to the players seeing it by {@link #sendSectionChanges()}.
+	 * <p>
+	 * Has to be called on the main thread. Loads the chunk if needed.
+	 *
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param section  nms chunk section to swap in
+	 */
+	public static void replaceSection(World world, int chunkX, int sectionY, int chunkZ, Object section) {
+		Object nmsWorld = getWorld(world);
+		int baseY = sectionY << 4;
+		Object nmsChunk = getChunkAt(nmsWorld, chunkX << 4, chunkZ << 4);
+		Object[] sections = getSections(nmsChunk);
+		Object blockPosition = newMutableBlockPosition(world, 0, 0, 0);
+		for (BlockState state : world.getChunkAt(chunkX, chunkZ).getTileEntities()) {
+			if (state.getY() >> 4 != sectionY) continue;
+			setBlockPosition(blockPosition, state.getX(), state.getY(), state.getZ());
+			removeIfTileEntity(nmsWorld, blockPosition);
+		}
+		try {
+			SET_SECTION_ELEMENT.invoke(sections, BLOCK_UPDATER.getSectionIndex(nmsChunk, baseY), section);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		ChunkChanges changes = changedChunk(world, chunkX, chunkZ);
+		changes.resend = true;
+		changes.section(sectionY).set(0, 4096);
+	}
+
+	/**
+	 * Has the same behavior as
+	 * {@link #replaceSection(World, int, int, int, Object)} but swaps the section
+	 * on the main thread through the workload queue
+	 *
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param section  nms chunk section to swap in
+	 */
+	public static CompletableFuture<Void> replaceSectionAsynchronously(World world, int chunkX, int sectionY,
+			int chunkZ, Object section) {
+		WorkloadJob job = new WorkloadJob();
+		replaceSectionAsynchronously(job, world, chunkX, sectionY, chunkZ, section);
+		return finishJob(job);
+	}
+
+	/**
+	 * Has the same behavior as
+	 * {@link #replaceSectionAsynchronously(World, int, int, int, Object)} but
+	 * queues the section in the given job, behind the workloads already queued in
+	 * it
+	 *
+	 * @param job      job sharing the workload queue with the other jobs
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param section  nms chunk section to swap in
+	 */
+	public static void replaceSectionAsynchronously(WorkloadJob job, World world, int chunkX,
+			int sectionY, int chunkZ, Object section) {
+		WORKLOAD_RUNNABLE.addWorkload(job, new SectionReplaceWorkload(world, chunkX, sectionY, chunkZ, section));
+	}
+
+	/**
+	 * @return whether previews can be sent on this version (1.8+)
+	 */
+	public static boolean canPreview() {
+		return BLOCK_CHANGE != null || BLOCK_CHANGE_EMPTY != null;
+	}
+
+	/**
+	 * Sets how many preview blocks each player is sent per tick at most, over
+	 * every preview shown to them. A section is never split, so a section with
+	 * more blocks is sent alone. Defaults to 8192.
+	 * 
+	 * @param blocks blocks sent per player and tick
+	 */
+	public static void setPreviewBlocksPerTick(int blocks) {
+		if (blocks < 1) throw new IllegalArgumentException("At least one block has to be sent per tick: " + blocks);
+		previewBlocksPerTick = blocks;
+	}
+
+	/**
+	 * Builds the packets showing the prepared writes of a section to a client,
+	 * without changing the world. The section is sent as one multi block change
+	 * packet, on 1.16.2 - 1.17 holding a detached section with the writes, before
+	 * that holding the writes themselves. 1.18+ can't build a detached section
+	 * and gets one block change packet per block. Can be called off the main
+	 * thread.
+	 * 
+	 * @param world    world where the section is located
+	 * @param commands writes prepared off the main thread
+	 * @return the packets, empty if previews are not supported on this version
+	 */
+	static Object[] previewPackets(World world, SectionCommands commands) {
+		int size = commands.size();
+		char[] indices = commands.indices;
+		Object[] states = commands.states;
+		try {
+			if (ReflectionUtils.supports(16, 2) && MULTI_BLOCK_CHANGE != null && CHUNK_SECTION != null) {
+				Object section = CHUNK_SECTION.invoke(commands.sectionY << 4);
+				short[] positions = new short[size];
+				for (int i = 0; i < size; i++) {
+					int index = indices[i];
+					setTypeChunkSection(section, index & 15, index >> 8, (index >> 4) & 15, states[i]);
+					positions[i] = multiBlockPosition(index, commands.sectionY);
+				}
+				return new Object[] { MULTI_BLOCK_CHANGE.invoke(
+						SECTION_POSITION_OF.invoke(commands.chunkX, commands.sectionY, commands.chunkZ),
+						SHORT_SET.invoke(positions, size), section) };
+			}
+			if (MULTI_BLOCK_CHANGE_EMPTY != null) {
+				Object packet = MULTI_BLOCK_CHANGE_EMPTY.invoke();
+				Object infos = Array.newInstance(MULTI_BLOCK_CHANGE_INFO_CLASS, size);
+				for (int i = 0; i < size; i++) {
+					Array.set(infos, i, MULTI_BLOCK_CHANGE_INFO.invoke(packet,
+							multiBlockPosition(indices[i], commands.sectionY), states[i]));
+				}
+				MULTI_BLOCK_CHANGE_CHUNK.invoke(packet, CHUNK_COORD.invoke(commands.chunkX, commands.chunkZ));
+				MULTI_BLOCK_CHANGE_INFOS.invoke(packet, infos);
+				return new Object[] { packet };
+			}
+			if (!canPreview()) return new Object[0];
+			int baseX = commands.chunkX << 4;
+			int baseY = commands.sectionY << 4;
+			int baseZ = commands.chunkZ << 4;
+			Object[] packets = new Object[size];
+			for (int i = 0; i < size; i++) {
+				int index = indices[i];
+				Object position = newBlockPosition(world, baseX + (index & 15), baseY + (index >> 8),
+						baseZ + ((index >> 4) & 15));
+				if (BLOCK_CHANGE != null) {
+					packets[i] = BLOCK_CHANGE.invoke(position, states[i]);
+					continue;
+				}
+				Object packet = BLOCK_CHANGE_EMPTY.invoke();
+				BLOCK_CHANGE_POSITION.invoke(packet, position);
+				BLOCK_CHANGE_STATE.invoke(packet, states[i]);
+				packets[i] = packet;
+			}
+			return packets;
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return new Object[0];
+		}
+	}
+
+	/**
+	 * Queues the sending of preview packets in the given job. Each player is sent
+	 * up to {@link #setPreviewBlocksPerTick(int)} blocks per tick, the job waits
+	 * for the next tick past that without holding up the other jobs. Packets are
+	 * sent from the main thread, so they reach the clients before the packets of
+	 * {@link #restorePreview(World, Collection, SectionCommands)} queued later.
+	 * 
+	 * @param job     job sharing the workload queue with the other jobs
+	 * @param world   world where the previewed section is located, players in
+	 *                other worlds are skipped
+	 * @param players players shown the preview
+	 * @param packets packets built by {@link #previewPackets(World, SectionCommands)}
+	 * @param blocks  number of blocks shown by the packets
+	 */
+	static void previewAsynchronously(WorkloadJob job, World world, Collection<? extends Player> players,
+			Object[] packets, int blocks) {
+		WORKLOAD_RUNNABLE.addWorkload(job, new PreviewWorkload(world, players, packets, blocks));
+	}
+
+	/**
+	 * Shows the given players the blocks of the world again at the positions of a
+	 * previewed section. Chunks that are not loaded are skipped, the clients
+	 * receive them from the world once loaded. Must be called on the main thread.
+	 * 
+	 * @param world    world where the section is located
+	 * @param players  players shown the preview
+	 * @param commands previewed writes
+	 */
+	static void restorePreview(World world, Collection<? extends Player> players, SectionCommands commands) {
+		if (!world.isChunkLoaded(commands.chunkX, commands.chunkZ)) return;
+		if (MULTI_BLOCK_CHANGE == null) {
+			world.refreshChunk(commands.chunkX, commands.chunkZ);
+			return;
+		}
+		ChunkChanges changes = new ChunkChanges(commands.chunkX, commands.chunkZ);
+		BitSet changed = changes.section(commands.sectionY);
+		for (int i = 0, size = commands.size(); i < size; i++) {
+			changed.set(commands.indices[i]);
+		}
+		Object[] packets = multiBlockChanges(getWorld(world), changes);
+		if (packets.length == 0) return;
+		for (Player player : players) {
+			if (player.isOnline() && player.getWorld() == world) ReflectionUtils.sendPacketSync(player, packets);
+		}
+	}
+
+	/**
+	 * Sets the bounds of the time spent on the workload queue every tick. The
+	 * budget starts at 10ms and follows the load of the server within these
+	 * bounds, growing while ticks stay under the target tick time and shrinking
+	 * when they go over it.
+	 * 
+	 * @param minMillisPerTick the smallest budget per tick, in milliseconds
+	 * @param maxMillisPerTick the largest budget per tick, in milliseconds
+	 * @param targetTickMillis the tick time to stay under, in milliseconds
+	 */
+	public static void setTickBudget(double minMillisPerTick, double maxMillisPerTick, double targetTickMillis) {
+		WORKLOAD_RUNNABLE.setBudget(minMillisPerTick, maxMillisPerTick, targetTickMillis);
+	}
+
+	/**
+	 * 
+	 * @return the current time spent on the workload queue every tick, in
+	 *         milliseconds
+	 */
+	public static double getTickBudget() {
+		return WORKLOAD_RUNNABLE.getMillisPerTick();
+	}
+
+	/**
+	 * Marks the given job as fully queued. Its future completes on the main
+	 * thread once every workload queued in it has run, without queueing anything
+	 * more. No workload can be queued in the job afterwards.
+	 * 
+	 * @param job job to finish
+	 * @return the future of the job, see {@link WorkloadJob#getFuture()}
+	 */
+	public static CompletableFuture<Void> finishJob(WorkloadJob job) {
+		WORKLOAD_RUNNABLE.finish(job);
+		return job.getFuture();
+	}
+
+	/**
+	 * 
+	 * @return the average tick time reported by the server in milliseconds, or -1
+	 *         if the server doesn't report it
+	 */
+	private static double getAverageTickTime() {
+		if (SERVER_AVERAGE_TICK_TIME == null) return -1;
+		try {
+			return (double) SERVER_AVERAGE_TICK_TIME.invoke(Bukkit.getServer());
+		} catch (Throwable e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Runs the given tasks on the main thread through the workload queue used by
+	 * the asynchronous setters, in a job of their own sharing the same time budget
+	 * per tick.
+	 * 
+	 * @param tasks tasks to run in order
+	 * @return a future that completes once the last task has run
+	 */
+	public static CompletableFuture<Void> runAsynchronously(Collection<? extends Runnable> tasks) {
+		WorkloadJob job = new WorkloadJob();
+		runAsynchronously(job, tasks);
+		return finishJob(job);
+	}
+
+	/**
+	 * Runs the given tasks on the main thread through the workload queue used by
+	 * the asynchronous setters, after every workload already queued in the given
+	 * job. {@link #finishJob(WorkloadJob)} tells when the tasks have run.
+	 * 
+	 * @param job   job sharing the workload queue with the other jobs
+	 * @param tasks tasks to run in order
+	 */
+	public static void runAsynchronously(WorkloadJob job, Collection<? extends Runnable> tasks) {
+		tasks.forEach(task -> WORKLOAD_RUNNABLE.addWorkload(job, new TaskWorkload(task)));
+	}
+
+	/**
+	 * Queues a workload in the given job, for the workloads of this package that
+	 * have no asynchronous setter of their own
+	 */
+	static void queueWorkload(WorkloadJob job, Workload workload) {
+		WORKLOAD_RUNNABLE.addWorkload(job, workload);
+	}
+
+	/**
+	 * @return whether chunks are loaded without blocking the main thread (Paper)
+	 */
+	public static boolean canLoadChunksAsynchronously() {
+		return WORLD_GET_CHUNK_AT_ASYNC != null;
+	}
+
+	/**
+	 * Queues the loading of a chunk in the given job, so the workloads queued
+	 * after it find the chunk loaded instead of loading it within the tick
+	 * budget. Chunk loads queued in a job are requested asynchronously up to
+	 * {@link #CHUNK_PRELOAD_AHEAD} chunks before the job reaches them, when the
+	 * server supports it, and the job waits for the chunk without holding up the
+	 * other jobs. Otherwise, up to {@link #SYNC_CHUNK_LOADS_PER_TICK} chunks are
+	 * loaded per tick. On 1.14+, the chunk is kept loaded with a plugin chunk
+	 * ticket until {@link #releaseChunkAsynchronously(WorkloadJob, World, int, int)}.
+	 * 
+	 * @param job    job sharing the workload queue with the other jobs
+	 * @param world  world where the chunk is located
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 */
+	public static void loadChunkAsynchronously(WorkloadJob job, World world, int chunkX, int chunkZ) {
+		ChunkLoadWorkload workload = new ChunkLoadWorkload(job, world, chunkX, chunkZ);
+		ChunkLoadWorkload previous = job.lastChunkLoad;
+		if (previous != null) previous.next = workload;
+		job.lastChunkLoad = workload;
+		WORKLOAD_RUNNABLE.addWorkload(job, workload);
+	}
+
+	/**
+	 * Queues the removal of the chunk ticket added by
+	 * {@link #loadChunkAsynchronously(WorkloadJob, World, int, int)} in the given
+	 * job, once the workloads using the chunk are queued. Tickets still held when
+	 * the job ends, fails or is cancelled are removed then.
+	 * 
+	 * @param job    job sharing the workload queue with the other jobs
+	 * @param world  world where the chunk is located
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 */
+	public static void releaseChunkAsynchronously(WorkloadJob job, World world, int chunkX, int chunkZ) {
+		if (WORLD_REMOVE_CHUNK_TICKET == null) return;
+		WORKLOAD_RUNNABLE.addWorkload(job, new TaskWorkload(() -> {
+			Set<Long> tickets = job.chunkTickets.get(world);
+			if (tickets != null && tickets.remove(chunkKey(chunkX, chunkZ))) removeChunkTicket(world, chunkX, chunkZ);
+		}));
+	}
+
+	/**
+	 * Removes the chunk tickets still held by a job, on the main thread
+	 */
+	private static void releaseChunkTickets(WorkloadJob job) {
+		job.chunkTickets.forEach((world, tickets) -> tickets
+				.forEach(key -> removeChunkTicket(world, (int) (key >> 32), (int) (long) key)));
+		job.chunkTickets.clear();
+	}
+
+	private static void removeChunkTicket(World world, int chunkX, int chunkZ) {
+		try {
+			WORLD_REMOVE_CHUNK_TICKET.invoke(world, chunkX, chunkZ, PLUGIN);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Hands a job to the main thread, so a cancelled job is dropped even when it
+	 * has nothing queued
+	 */
+	static void scheduleJob(WorkloadJob job) {
+		WORKLOAD_RUNNABLE.schedule(job);
+	}
+
+	/**
+	 * @return whether {@link #readSection(World, int, int, int, int[])} is
+	 *         supported on this version (1.13+)
+	 */
+	public static boolean canReadSections() {
+		return SECTION_STATES != null;
+	}
+
+	/**
+	 * Reads every block of a chunk section at once, straight from the section
+	 * palette and its packed storage instead of going through bukkit for each
+	 * block.
+	 * <p>
+	 * Has to be called on the main thread. Loads the chunk if needed.
+	 * </p>
+	 * 
+	 * @param world  world where the chunk is located
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @param y      any y coordinate inside the section
+	 * @param states array of at least 4096 entries, filled with indices into the
+	 *               returned palette in y, z, x order
+	 * @return the materials of the section palette, or null if the section doesn't
+	 *         exist, meaning it only contains air. When a single material is
+	 *         returned, every block of the section is that material and
+	 *         <i>states</i> may be left untouched.
+	 * @throws UnsupportedOperationException if {@link #canReadSections()} is false
+	 */
+	public static @Nullable Material[] readSection(World world, int chunkX, int chunkZ, int y, int[] states) {
+		if (!canReadSections()) throw new UnsupportedOperationException("Section reads are only available on 1.13+");
+		try {
+			Object[] palette = readSectionStates(world, chunkX, chunkZ, y, states);
+			if (palette == null) return null;
+			Material[] materials = new Material[palette.length];
+			for (int i = 0; i < palette.length; i++) {
+				materials[i] = toMaterial(palette[i]);
+			}
+			return materials;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Unable to read chunk section", e);
+		}
+	}
+
+	/**
+	 * Reads every block state of a chunk section at once, like
+	 * {@link #readSection(World, int, int, int, int[])} but keeping the nms block
+	 * data of the palette.
+	 */
+	private static @Nullable Object[] readSectionStates(World world, int chunkX, int chunkZ, int y, int[] states)
+			throws Throwable {
+		Object nmsChunk = WORLD_GET_CHUNK.invoke(getWorld(world), chunkX, chunkZ);
+		Object[] sections = getSections(nmsChunk);
+		int index = BLOCK_UPDATER.getSectionIndex(nmsChunk, y);
+		if (index < 0 || index >= sections.length || sections[index] == null) return null;
+		Object section = sections[index];
+		// Sections emptied by players are kept around, no need to unpack them
+		if (nonEmptyCountChecked > 0 && (int) SECTION_NON_EMPTY_COUNT.invoke(section) == 0)
+			return new Object[] { AIR_BLOCK_DATA };
+		Object container = SECTION_STATES.invoke(section);
+		Object data = PALETTE_CONTAINER_DATA != null ? PALETTE_CONTAINER_DATA.invoke(container) : container;
+		unpackStates(PALETTE_CONTAINER_STORAGE.invoke(data), states);
+		Object[] palette = translatePalette(PALETTE_CONTAINER_PALETTE.invoke(data), states);
+		if (nonEmptyCountChecked == 0 && SECTION_NON_EMPTY_COUNT != null) checkNonEmptyCount(section, palette, states);
+		return palette;
+	}
+
+	/**
+	 * Only trusts the non air block count found by name once it matched the
+	 * blocks of a section that isn't empty, and never again once it didn't
+	 */
+	private static void checkNonEmptyCount(Object section, Object[] palette, int[] states) throws Throwable {
+		boolean[] air = new boolean[palette.length];
+		for (int i = 0; i < palette.length; i++) {
+			String name = toMaterial(palette[i]).name();
+			air[i] = name.equals("AIR") || name.equals("CAVE_AIR") || name.equals("VOID_AIR");
+		}
+		int count = 0;
+		for (int i = 0; i < 4096; i++) {
+			if (!air[palette.length == 1 ? 0 : states[i]]) count++;
+		}
+		int stored = (int) SECTION_NON_EMPTY_COUNT.invoke(section);
+		if (stored != count) {
+			nonEmptyCountChecked = -1;
+		} else if (count > 0) {
+			nonEmptyCountChecked = 1;
+		}
+	}
+
+	/**
+	 * Removes the blocks already in place from a section about to be written, so
+	 * only the differing positions are written and sent to the clients.
+	 * <p>
+	 * A position is only unchanged when the world holds the very block state the
+	 * paste would write, the default state of its material. A stair facing
+	 * another way or a slab on the other half is written again. On 1.13+ the
+	 * current states are read with
+	 * {@link #readSection(World, int, int, int, int[])}, before that every block
+	 * is read through bukkit and compared by type and data value.
+	 * <p>
+	 * Has to be called on the main thread. Loads the chunk if needed.
+	 * </p>
+	 * 
+	 * @param world    world where the section is located
+	 * @param chunkX   chunk x coordinate
+	 * @param sectionY section y coordinate, the block y coordinate {@code >> 4}
+	 * @param chunkZ   chunk z coordinate
+	 * @param blocks   4096 materials in y, z, x order, null entries are left as
+	 *                 they are. Entries matching the world are set to null.
+	 * @return whether any block is left to write
+	 */
+	@SuppressWarnings("deprecation")
+	public static boolean removeUnchanged(World world, int chunkX, int sectionY, int chunkZ, Material[] blocks) {
+		Object[] palette = null;
+		if (canReadSections()) {
+			try {
+				palette = readSectionStates(world, chunkX, chunkZ, sectionY << 4, CURRENT_STATES);
+			} catch (Throwable e) {
+				throw new IllegalStateException("Unable to read chunk section", e);
+			}
+		}
+		int baseX = chunkX << 4;
+		int baseY = sectionY << 4;
+		int baseZ = chunkZ << 4;
+		boolean changed = false;
+		for (int i = 0; i < 4096; i++) {
+			Material material = blocks[i];
+			if (material == null) continue;
+			boolean unchanged;
+			if (canReadSections()) {
+				Object current = palette == null ? AIR_BLOCK_DATA
+						: palette.length == 1 ? palette[0] : palette[CURRENT_STATES[i]];
+				unchanged = getBlockData(material) == current;
+			} else {
+				// Materials are written with data value 0 before 1.13
+				Block block = world.getBlockAt(baseX + (i & 15), baseY + (i >> 8), baseZ + ((i >> 4) & 15));
+				unchanged = block.getType() == material && block.getData() == 0;
+			}
+			if (unchanged) {
+				blocks[i] = null;
+			} else {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static void unpackStates(Object storage, int[] states) throws Throwable {
+		MethodHandle[] fields = BIT_STORAGE_FIELDS.computeIfAbsent(storage.getClass(),
+				BlockChanger::findBitStorageFields);
+		long[] raw = fields.length == 0 ? null : (long[]) fields[0].invoke(storage);
+		long mask = fields.length == 0 ? 0 : (long) fields[1].invoke(storage);
+		int bits = Long.bitCount(mask);
+		if (raw == null || raw.length == 0 || bits == 0) {
+			Arrays.fill(states, 0, 4096, 0);
+			return;
+		}
+		if (ReflectionUtils.supports(16)) {
+			// 1.16+ values never span two longs
+			int valuesPerLong = 64 / bits;
+			int i = 0;
+			for (int w = 0; w < raw.length && i < 4096; w++) {
+				long word = raw[w];
+				for (int j = 0; j < valuesPerLong && i < 4096; j++) {
+					states[i++] = (int) (word & mask);
+					word >>>= bits;
+				}
+			}
+		} else {
+			for (int i = 0; i < 4096; i++) {
+				long bitIndex = (long) i * bits;
+				int start = (int) (bitIndex >> 6);
+				int offset = (int) (bitIndex & 63);
+				long value = raw[start] >>> offset;
+				if (offset + bits > 64) value |= raw[start + 1] << (64 - offset);
+				states[i] = (int) (value & mask);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the raw palette values in <i>states</i> with indices into the
+	 * returned materials, resolving each distinct value only once.
+	 */
+	private static Object[] translatePalette(Object palette, int[] states) throws Throwable {
+		int max = 0;
+		for (int i = 0; i < 4096; i++) {
+			if (states[i] > max) max = states[i];
+		}
+		// raw value -> index in block states + 1
+		int[] remap = new int[max + 1];
+		Object[] blockStates = new Object[Math.min(max + 1, 4096)];
+		int size = 0;
+		for (int i = 0; i < 4096; i++) {
+			int raw = states[i];
+			int local = remap[raw];
+			if (local == 0) {
+				Object blockData = PALETTE_VALUE_FOR.invoke(palette, raw);
+				blockStates[size] = blockData == null ? AIR_BLOCK_DATA : blockData;
+				local = remap[raw] = ++size;
+			}
+			states[i] = local - 1;
+		}
+		return Arrays.copyOf(blockStates, size);
+	}
+
+	private static Material toMaterial(@Nullable Object nmsBlockData) throws Throwable {
+		if (nmsBlockData == null) return Material.AIR;
+		return (Material) BLOCK_DATA_GET_MATERIAL.invoke(CRAFT_BLOCK_DATA_FROM_DATA.invoke(nmsBlockData));
+	}
+
+	private static MethodHandle[] findBitStorageFields(Class<?> storageClass) {
+		Field raw = null;
+		Field mask = null;
+		for (Class<?> c = storageClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) continue;
+				if (raw == null && field.getType() == long[].class) raw = field;
+				if (mask == null && field.getType() == long.class) mask = field;
+			}
+		}
+		if (raw == null || mask == null) return new MethodHandle[0];
+		try {
+			raw.setAccessible(true);
+			mask.setAccessible(true);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			return new MethodHandle[] { lookup.unreflectGetter(raw), lookup.unreflectGetter(mask) };
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		}
+		return new MethodHandle[0];
+	}
+
+	/**
+	 * @return the non static field of <i>owner</i> holding the given type,
+	 *         preferring fields matching <i>preferred</i>, or null if none
+	 */
+	private static @Nullable Field findField(Class<?> owner, Class<?> type, Predicate<Field> preferred) {
+		Field found = null;
+		for (Field field : owner.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers()) || !type.isAssignableFrom(field.getType())) continue;
+			if (preferred.test(field)) return field;
+			if (found == null) found = field;
+		}
+		return found;
+	}
+
+	private static Object getSection(Object nmsChunk, Object[] sections, int y) {
+		return BLOCK_UPDATER.getSection(nmsChunk, sections, y);
+	}
+
+	private static Object[] getSections(Object nmsChunk) {
+		try {
+			return (Object[]) CHUNK_GET_SECTIONS.invoke(nmsChunk);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static void setTypeChunkSection(Object chunkSection, int x, int y, int z, Object blockData) {
+		try {
+			CHUNK_SECTION_SET_TYPE.invoke(chunkSection, x, y, z, blockData);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void setTypeAndData(Object nmsWorld, Object blockPosition, Object blockData, int physics) {
+		try {
+			SET_TYPE_AND_DATA.invoke(nmsWorld, blockPosition, blockData, physics);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void setType(Object chunk, Object blockPosition, Object blockData, boolean physics) {
+		BLOCK_UPDATER.setType(chunk, blockPosition, blockData, physics);
+	}
+
+	private static Object getChunkAt(Object world, Location loc) {
+		try {
+			return WORLD_GET_CHUNK.invoke(world, loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		return null;
 	}
 
 	private static Object getChunkAt(Object world, int x, int z) {
@@ -2121,37 +3591,210 @@ public class BlockChanger {
 
 	}
 
-	private static interface Workload {
+	static interface Workload {
 
+		/**
+		 * Runs the workload, or the next part of it.
+		 *
+		 * @return whether the workload is done, otherwise it stays at the head of its
+		 *         job queue and is computed again
+		 */
 		boolean compute();
 
+		/**
+		 * @return whether the workload can be computed now, otherwise its job gives
+		 *         up its turn
+		 */
+		default boolean isReady() {
+			return true;
+		}
+
 	}
 
+	/**
+	 * Runs the queued workloads of every job within a single budget per tick. Jobs
+	 * take turns in round-robin order, each turn lasting {@link #NANOS_PER_TURN}
+	 * times the job priority, so concurrent jobs share the tick instead of waiting
+	 * for each other.
+	 * <p>
+	 * Workloads may be added from any thread. Every job keeps its workloads in a
+	 * lock-free queue, and a job getting its first workload is handed to the main
+	 * thread through {@link #pending}, the turn order itself being only touched by
+	 * the main thread.
+	 * <p>
+	 * Paused jobs give up their turn, and so do jobs of
+	 * {@link WorkloadJob#PRIORITY_LOW} while the server lags with the budget at
+	 * its minimum. Cancelled jobs are dropped on their next turn.
+	 * <p>
+	 * The budget follows the load of the server. When the server reports its
+	 * average tick time (Paper), the budget is moved towards the target tick time
+	 * in proportion to the difference. Otherwise, ticks lasting longer than 50ms
+	 * cut the budget by a quarter while ticks on time grow it slowly.
+	 */
 	private static class WorkloadRunnable implements Runnable {
 
-		private static final double MAX_MILLIS_PER_TICK = 10.0;
-		private static final int MAX_NANOS_PER_TICK = (int) (MAX_MILLIS_PER_TICK * 1E6);
+		private static final long TICK_NANOS = 50_000_000;
+		/**
+		 * Tick lengths past which the server is considered lagging
+		 */
+		private static final long LAG_NANOS = TICK_NANOS + 2_000_000;
+		private static final int NANOS_PER_TURN = 250_000;
+		/**
+		 * Budget change per millisecond of difference with the target tick time
+		 */
+		private static final double GAIN = 0.25;
+		private static final double INCREASE_MILLIS = 0.5;
+		private static final double DECREASE_FACTOR = 0.75;
+		/**
+		 * Share of the budget kept for relighting while chunks wait for it
+		 */
+		private static final double RELIGHT_SHARE = 0.2;
+
+		private volatile double minMillisPerTick = 2.0;
+		private volatile double maxMillisPerTick = 25.0;
+		private volatile double targetTickMillis = 45.0;
+		private volatile double millisPerTick = 10.0;
+		private long lastRunNanos;
+		private boolean busy;
+		private boolean lagging;
 
-		private final Deque<Workload> workloadDeque = new ArrayDeque<>();
+		/**
+		 * Jobs that got workloads since the last tick
+		 */
+		private final Queue<WorkloadJob> pending = new ConcurrentLinkedQueue<>();
+		/**
+		 * Jobs with queued workloads, in turn order
+		 */
+		private final Deque<WorkloadJob> jobs = new ArrayDeque<>();
+
+		public void addWorkload(WorkloadJob job, Workload workload) {
+			// Producers may still be queueing the rest of a cancelled job
+			if (job.cancelled) return;
+			if (job.finished) throw new IllegalStateException("The job is already finished");
+			job.workloads.add(workload);
+			job.queued.increment();
+			schedule(job);
+		}
 
-		public void addWorkload(Workload workload) {
-			this.workloadDeque.add(workload);
+		public void finish(WorkloadJob job) {
+			job.finished = true;
+			schedule(job);
 		}
 
-		public void whenComplete(Runnable runnable) {
-			WhenCompleteWorkload workload = new WhenCompleteWorkload(runnable);
-			this.workloadDeque.add(workload);
+		public void schedule(WorkloadJob job) {
+			if (job.scheduled.compareAndSet(false, true)) this.pending.add(job);
 		}
 
-		@Override
-		public void run() {
-			long stopTime = System.nanoTime() + MAX_NANOS_PER_TICK;
+		public boolean isEmpty() {
+			return this.jobs.isEmpty() && this.pending.isEmpty();
+		}
 
-			Workload nextLoad;
+		public void setBudget(double minMillisPerTick, double maxMillisPerTick, double targetTickMillis) {
+			if (minMillisPerTick <= 0 || maxMillisPerTick < minMillisPerTick)
+				throw new IllegalArgumentException(
+						"Invalid budget bounds: " + minMillisPerTick + " - " + maxMillisPerTick);
+			this.minMillisPerTick = minMillisPerTick;
+			this.maxMillisPerTick = maxMillisPerTick;
+			this.targetTickMillis = targetTickMillis;
+			this.millisPerTick = Math.max(minMillisPerTick, Math.min(maxMillisPerTick, this.millisPerTick));
+		}
+
+		public double getMillisPerTick() {
+			return this.millisPerTick;
+		}
 
-			while (System.nanoTime() <= stopTime && (nextLoad = this.workloadDeque.poll()) != null) {
-				nextLoad.compute();
+		/**
+		 * Adjusts the budget from the length of the last tick, only when workloads
+		 * ran during it so an idle queue doesn't drift the budget.
+		 */
+		private void adjustBudget(long now) {
+			long tickNanos = now - this.lastRunNanos;
+			this.lastRunNanos = now;
+			if (!this.busy) return;
+			double averageTickMillis = BlockChanger.getAverageTickTime();
+			double millis = this.millisPerTick;
+			if (averageTickMillis > 0) {
+				millis += GAIN * (this.targetTickMillis - averageTickMillis);
+				this.lagging = averageTickMillis > this.targetTickMillis;
+			} else if (tickNanos > LAG_NANOS) {
+				millis *= DECREASE_FACTOR;
+				this.lagging = true;
+			} else {
+				millis += INCREASE_MILLIS;
+				this.lagging = false;
 			}
+			this.millisPerTick = Math.max(this.minMillisPerTick, Math.min(this.maxMillisPerTick, millis));
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			adjustBudget(now);
+			WorkloadJob job;
+			while ((job = this.pending.poll()) != null) {
+				this.jobs.add(job);
+			}
+			this.busy = !isEmpty();
+			long budgetNanos = (long) (this.millisPerTick * 1E6);
+			long stopTime = now + budgetNanos;
+			// Relighting gets its share of every tick while chunks wait for it, so a queue
+			// that never empties doesn't starve it
+			long jobsStopTime = RELIGHT_CHUNKS.isEmpty() ? stopTime
+					: stopTime - (long) (budgetNanos * RELIGHT_SHARE);
+
+			syncChunkLoads = 0;
+			PREVIEW_BLOCKS_SENT.clear();
+			// Low priority jobs are suspended while the budget can't shrink any further
+			boolean shedding = this.lagging && this.millisPerTick <= this.minMillisPerTick;
+			// Jobs in a row that gave up their turn, paused or waiting for a chunk
+			int waiting = 0;
+			while (System.nanoTime() <= jobsStopTime && waiting < this.jobs.size()
+					&& (job = this.jobs.poll()) != null) {
+				Queue<Workload> queue = job.workloads;
+				if (job.cancelled) {
+					job.finished = true;
+					queue.clear();
+					BlockChanger.releaseChunkTickets(job);
+					if (job.failure != null) job.getFuture().completeExceptionally(job.failure);
+					else job.getFuture().cancel(false);
+					continue;
+				}
+				long turnStopTime = Math.min(jobsStopTime, System.nanoTime() + (long) NANOS_PER_TURN * job.getPriority());
+				boolean suspended = job.paused || shedding && job.getPriority() <= WorkloadJob.PRIORITY_LOW;
+				Workload nextLoad;
+				waiting++;
+				try {
+					while (!suspended && System.nanoTime() <= turnStopTime && (nextLoad = queue.peek()) != null
+							&& nextLoad.isReady()) {
+						waiting = 0;
+						if (!nextLoad.compute()) continue;
+						queue.poll();
+						job.computed++;
+					}
+				} catch (Throwable e) {
+					// The rest of a failed job is dropped
+					job.finished = true;
+					queue.clear();
+					BlockChanger.releaseChunkTickets(job);
+					job.getFuture().completeExceptionally(e);
+					continue;
+				}
+				if (queue.isEmpty()) {
+					if (job.finished) {
+						BlockChanger.releaseChunkTickets(job);
+						job.getFuture().complete(null);
+						continue;
+					}
+					job.scheduled.set(false);
+					// A workload or the finish mark added meanwhile may have seen the job as
+					// still scheduled
+					if (queue.isEmpty() && !job.finished || !job.scheduled.compareAndSet(false, true)) continue;
+				}
+				this.jobs.add(job);
+			}
+
+			BlockChanger.sendSectionChanges();
+			BlockChanger.relightChunks(stopTime);
 		}
 
 	}
@@ -2252,18 +3895,296 @@ public class BlockChanger {
 
 	}
 
-	private static class WhenCompleteWorkload implements Workload {
+	/**
+	 * Fills a cuboid by keeping the position of the next block, instead of queueing
+	 * a workload per block. Every call sets up to {@link #BLOCKS_PER_COMPUTE}
+	 * blocks, x first, then y, then z, so the scheduler checks the budget between
+	 * calls.
+	 */
+	private static abstract class CuboidWorkload implements Workload {
+
+		private static final int BLOCKS_PER_COMPUTE = 256;
+
+		protected final Object nmsWorld;
+		protected final Object blockPosition;
+		protected final Object blockData;
+		private final int x1, y1, x2, y2, z2;
+		private int x, y, z;
+
+		public CuboidWorkload(Object nmsWorld, Object blockPosition, Object blockData, int x1, int y1, int z1,
+				int x2, int y2, int z2) {
+			this.nmsWorld = nmsWorld;
+			this.blockPosition = blockPosition;
+			this.blockData = blockData;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.z2 = z2;
+			this.x = x1;
+			this.y = y1;
+			this.z = z1;
+		}
+
+		@Override
+		public boolean compute() {
+			for (int i = 0; i < BLOCKS_PER_COMPUTE; i++) {
+				if (z > z2) return true;
+				BlockChanger.setBlockPosition(blockPosition, x, y, z);
+				set(x, y, z);
+				if (++x > x2) {
+					x = x1;
+					if (++y > y2) {
+						y = y1;
+						++z;
+					}
+				}
+			}
+			return z > z2;
+		}
+
+		protected abstract void set(int x, int y, int z);
+
+	}
+
+	private static class CuboidSetWorkload extends CuboidWorkload {
+
+		private final int physics;
+
+		public CuboidSetWorkload(Object nmsWorld, Object blockPosition, Object blockData, int x1, int y1, int z1,
+				int x2, int y2, int z2, boolean physics) {
+			super(nmsWorld, blockPosition, blockData, x1, y1, z1, x2, y2, z2);
+			this.physics = physics ? 3 : 2;
+		}
+
+		@Override
+		protected void set(int x, int y, int z) {
+			BlockChanger.removeIfTileEntity(nmsWorld, blockPosition);
+			BlockChanger.setTypeAndData(nmsWorld, blockPosition, blockData, physics);
+		}
+
+	}
+
+	private static class SectionCuboidWorkload extends CuboidWorkload {
+
+		private final boolean physics;
+
+		public SectionCuboidWorkload(Object nmsWorld, Object blockPosition, Object blockData, int x1, int y1,
+				int z1, int x2, int y2, int z2, boolean physics) {
+			super(nmsWorld, blockPosition, blockData, x1, y1, z1, x2, y2, z2);
+			this.physics = physics;
+		}
+
+		@Override
+		protected void set(int x, int y, int z) {
+			Object nmsChunk = BlockChanger.getChunkAt(nmsWorld, x, z);
+			Object[] sections = BlockChanger.getSections(nmsChunk);
+			Object section = BlockChanger.getSection(nmsChunk, sections, y);
+			BlockChanger.removeIfTileEntity(nmsWorld, blockPosition);
+			BlockChanger.setTypeChunkSection(section, x & 15, y & 15, z & 15, blockData);
+			BlockChanger.updateBlock(nmsWorld, blockPosition, blockData, physics);
+		}
+
+	}
+
+	private static class SectionBatchWorkload implements Workload {
+
+		private World world;
+		private int chunkX;
+		private int sectionY;
+		private int chunkZ;
+		private Material[] blocks;
+		private boolean physics;
+		private boolean batched;
+
+		public SectionBatchWorkload(World world, int chunkX, int sectionY, int chunkZ, Material[] blocks,
+				boolean physics, boolean batched) {
+			this.world = world;
+			this.chunkX = chunkX;
+			this.sectionY = sectionY;
+			this.chunkZ = chunkZ;
+			this.blocks = blocks;
+			this.physics = physics;
+			this.batched = batched;
+		}
+
+		@Override
+		public boolean compute() {
+			BlockChanger.setSection(world, chunkX, sectionY, chunkZ, blocks, physics, batched);
+			return true;
+		}
+
+	}
+
+	private static class SectionReplaceWorkload implements Workload {
 
-		private Runnable runnable;
+		private World world;
+		private int chunkX;
+		private int sectionY;
+		private int chunkZ;
+		private Object section;
 
-		public WhenCompleteWorkload(Runnable runnable) {
-			this.runnable = runnable;
+		public SectionReplaceWorkload(World world, int chunkX, int sectionY, int chunkZ, Object section) {
+			this.world = world;
+			this.chunkX = chunkX;
+			this.sectionY = sectionY;
+			this.chunkZ = chunkZ;
+			this.section = section;
 		}
 
 		@Override
 		public boolean compute() {
-			runnable.run();
-			return false;
+			BlockChanger.replaceSection(world, chunkX, sectionY, chunkZ, section);
+			return true;
+		}
+
+	}
+
+	/**
+	 * Blocks of a chunk changed without notifying the clients, by section y
+	 */
+	private static class ChunkChanges {
+
+		private final int chunkX;
+		private final int chunkZ;
+		private final Map<Integer, BitSet> sections = new HashMap<>();
+		private boolean resend;
+
+		public ChunkChanges(int chunkX, int chunkZ) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+
+		public BitSet section(int sectionY) {
+			return sections.computeIfAbsent(sectionY, y -> new BitSet(4096));
+		}
+
+		public int count() {
+			int count = 0;
+			for (BitSet changed : sections.values()) count += changed.cardinality();
+			return count;
+		}
+
+	}
+
+	/**
+	 * Loads a chunk before the workloads of its job using it. Loads queued in the
+	 * same job are linked in order, so reaching one requests the next ones.
+	 */
+	static class ChunkLoadWorkload implements Workload {
+
+		private final WorkloadJob job;
+		private final World world;
+		private final int chunkX;
+		private final int chunkZ;
+		/**
+		 * The next chunk load queued in the same job
+		 */
+		volatile ChunkLoadWorkload next;
+		private CompletableFuture<?> loading;
+
+		public ChunkLoadWorkload(WorkloadJob job, World world, int chunkX, int chunkZ) {
+			this.job = job;
+			this.world = world;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+
+		/**
+		 * Requests the asynchronous load of the chunk, only called on the main thread
+		 */
+		private void request() {
+			if (this.loading != null || WORLD_GET_CHUNK_AT_ASYNC == null) return;
+			if (this.world.isChunkLoaded(this.chunkX, this.chunkZ)) {
+				this.loading = CompletableFuture.completedFuture(null);
+				return;
+			}
+			try {
+				this.loading = (CompletableFuture<?>) WORLD_GET_CHUNK_AT_ASYNC.invoke(this.world, this.chunkX,
+						this.chunkZ);
+			} catch (Throwable e) {
+				this.loading = CompletableFuture.completedFuture(null);
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			ChunkLoadWorkload ahead = this;
+			for (int i = 0; i < CHUNK_PRELOAD_AHEAD && ahead != null; i++, ahead = ahead.next) {
+				ahead.request();
+			}
+			if (this.loading != null) return this.loading.isDone();
+			return this.world.isChunkLoaded(this.chunkX, this.chunkZ)
+					|| syncChunkLoads < SYNC_CHUNK_LOADS_PER_TICK;
+		}
+
+		@Override
+		public boolean compute() {
+			if (!this.world.isChunkLoaded(this.chunkX, this.chunkZ)) {
+				syncChunkLoads++;
+				this.world.getChunkAt(this.chunkX, this.chunkZ);
+			}
+			if (WORLD_ADD_CHUNK_TICKET != null && this.job.chunkTickets
+					.computeIfAbsent(this.world, w -> new HashSet<>()).add(chunkKey(this.chunkX, this.chunkZ))) {
+				try {
+					WORLD_ADD_CHUNK_TICKET.invoke(this.world, this.chunkX, this.chunkZ, PLUGIN);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private static class PreviewWorkload implements Workload {
+
+		private final World world;
+		private final Collection<? extends Player> players;
+		private final Object[] packets;
+		private final int blocks;
+
+		public PreviewWorkload(World world, Collection<? extends Player> players, Object[] packets, int blocks) {
+			this.world = world;
+			this.players = players;
+			this.packets = packets;
+			this.blocks = blocks;
+		}
+
+		@Override
+		public boolean isReady() {
+			for (Player player : players) {
+				Integer sent = PREVIEW_BLOCKS_SENT.get(player);
+				if (sent != null && sent + blocks > previewBlocksPerTick) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean compute() {
+			if (packets.length == 0) return true;
+			for (Player player : players) {
+				if (!player.isOnline() || player.getWorld() != world) continue;
+				ReflectionUtils.sendPacketSync(player, packets);
+				PREVIEW_BLOCKS_SENT.merge(player, blocks, Integer::sum);
+			}
+			return true;
+		}
+
+	}
+
+	private static class TaskWorkload implements Workload {
+
+		private Runnable task;
+
+		public TaskWorkload(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public boolean compute() {
+			task.run();
+			return true;
 		}
 
 	}
@@ -0,0 +1,383 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Section sparse, palette compressed block storage used by {@link Schematic}.
+ * Blocks are grouped in 16x16x16 sections aligned to the world grid, each position holding a palette id.
+ * Positions that were never set hold {@link #EMPTY} and are not part of the schematic.
+ * Sections holding the same palette id everywhere, like sky or ocean, are kept as a single element array
+ * until one of their positions is written.
+ * Sections may be filled concurrently as long as two threads never write the same position.
+ */
+final class BlockStore {
+    static final char EMPTY = 0;
+    static final int SECTION_VOLUME = 4096;
+
+    private final Map<Long, char[]> sections = new ConcurrentHashMap<>();
+    private final char[] idsByOrdinal = new char[Material.values().length];
+    private volatile Material[] palette = new Material[]{null};
+
+    /**
+     * Gets the palette id of a material, adding it to the palette if needed.
+     *
+     * @param material The material.
+     * @return The palette id of the material.
+     */
+    char paletteId(Material material) {
+        char id = idsByOrdinal[material.ordinal()];
+        return id != EMPTY ? id : register(material);
+    }
+
+    private synchronized char register(Material material) {
+        char id = idsByOrdinal[material.ordinal()];
+        if (id != EMPTY) return id;
+        Material[] grown = Arrays.copyOf(palette, palette.length + 1);
+        id = (char) palette.length;
+        grown[id] = material;
+        palette = grown;
+        idsByOrdinal[material.ordinal()] = id;
+        return id;
+    }
+
+    /**
+     * Gets the material for a palette id.
+     *
+     * @param id The palette id.
+     * @return The material, or null for {@link #EMPTY}.
+     */
+    Material material(char id) {
+        return palette[id];
+    }
+
+    /**
+     * Gets the palette, indexed by palette id. Index 0 is always null.
+     *
+     * @return The current palette.
+     */
+    Material[] palette() {
+        return palette;
+    }
+
+    void set(int x, int y, int z, Material material) {
+        char id = paletteId(material);
+        section(x >> 4, y >> 4, z >> 4, true)[index(x, y, z)] = id;
+    }
+
+    Material get(int x, int y, int z) {
+        char[] section = sections.get(sectionKey(x >> 4, y >> 4, z >> 4));
+        return section == null ? null : palette[section[isUniform(section) ? 0 : index(x, y, z)]];
+    }
+
+    /**
+     * Gets the palette ids of a section, expanding it first when it is uniform.
+     *
+     * @param sectionX The section x coordinate.
+     * @param sectionY The section y coordinate.
+     * @param sectionZ The section z coordinate.
+     * @param create   Whether to create an empty section when absent.
+     * @return The palette ids of the section indexed by {@link #index(int, int, int)}, or null when absent.
+     */
+    char[] section(int sectionX, int sectionY, int sectionZ, boolean create) {
+        long key = sectionKey(sectionX, sectionY, sectionZ);
+        char[] section = sections.get(key);
+        if (section != null && !isUniform(section)) return section;
+        if (section == null && !create) return null;
+        return sections.compute(key, (k, current) -> {
+            if (current == null) return new char[SECTION_VOLUME];
+            if (!isUniform(current)) return current;
+            char[] expanded = new char[SECTION_VOLUME];
+            Arrays.fill(expanded, current[0]);
+            return expanded;
+        });
+    }
+
+    /**
+     * Gets the keys of the sections holding stored positions once every position is moved by an offset.
+     *
+     * @return The keys of the target sections, see {@link #sectionKey(int, int, int)}.
+     */
+    Set<Long> shiftedSectionKeys(int offsetX, int offsetY, int offsetZ) {
+        Set<Long> keys = new HashSet<>();
+        for (long key : sections.keySet()) {
+            int baseX = (sectionX(key) << 4) + offsetX;
+            int baseY = (sectionY(key) << 4) + offsetY;
+            int baseZ = (sectionZ(key) << 4) + offsetZ;
+            for (int x = baseX >> 4; x <= (baseX + 15) >> 4; x++) {
+                for (int y = baseY >> 4; y <= (baseY + 15) >> 4; y++) {
+                    for (int z = baseZ >> 4; z <= (baseZ + 15) >> 4; z++) {
+                        keys.add(sectionKey(x, y, z));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gathers the positions landing in a target section once every position is moved by an offset,
+     * reading each overlapping stored section once.
+     *
+     * @param sectionX The target section x coordinate.
+     * @param sectionY The target section y coordinate.
+     * @param sectionZ The target section z coordinate.
+     * @param offsetX  The x offset.
+     * @param offsetY  The y offset.
+     * @param offsetZ  The z offset.
+     * @param out      Receives the material of every position of the target section by
+     *                 {@link #index(int, int, int)}, positions without a stored block are left untouched.
+     * @return Whether any position was gathered.
+     */
+    boolean shiftedSection(int sectionX, int sectionY, int sectionZ, int offsetX, int offsetY, int offsetZ,
+                           Material[] out) {
+        Material[] palette = this.palette;
+        int baseX = sectionX << 4;
+        int baseY = sectionY << 4;
+        int baseZ = sectionZ << 4;
+        boolean found = false;
+        for (int sourceY = (baseY - offsetY) >> 4; sourceY <= (baseY + 15 - offsetY) >> 4; sourceY++) {
+            for (int sourceZ = (baseZ - offsetZ) >> 4; sourceZ <= (baseZ + 15 - offsetZ) >> 4; sourceZ++) {
+                for (int sourceX = (baseX - offsetX) >> 4; sourceX <= (baseX + 15 - offsetX) >> 4; sourceX++) {
+                    char[] source = sections.get(sectionKey(sourceX, sourceY, sourceZ));
+                    if (source == null) continue;
+                    boolean uniform = isUniform(source);
+                    if (uniform && source[0] == EMPTY) continue;
+                    int fromX = Math.max(baseX, (sourceX << 4) + offsetX);
+                    int fromY = Math.max(baseY, (sourceY << 4) + offsetY);
+                    int fromZ = Math.max(baseZ, (sourceZ << 4) + offsetZ);
+                    int toX = Math.min(baseX + 15, (sourceX << 4) + 15 + offsetX);
+                    int toY = Math.min(baseY + 15, (sourceY << 4) + 15 + offsetY);
+                    int toZ = Math.min(baseZ + 15, (sourceZ << 4) + 15 + offsetZ);
+                    for (int y = fromY; y <= toY; y++) {
+                        for (int z = fromZ; z <= toZ; z++) {
+                            for (int x = fromX; x <= toX; x++) {
+                                char id = source[uniform ? 0 : index(x - offsetX, y - offsetY, z - offsetZ)];
+                                if (id == EMPTY) continue;
+                                out[index(x, y, z)] = palette[id];
+                                found = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sets every position of a section to the same material in one step, replacing what it held.
+     *
+     * @param sectionX The section x coordinate.
+     * @param sectionY The section y coordinate.
+     * @param sectionZ The section z coordinate.
+     * @param material The material.
+     */
+    void fill(int sectionX, int sectionY, int sectionZ, Material material) {
+        sections.put(sectionKey(sectionX, sectionY, sectionZ), new char[]{paletteId(material)});
+    }
+
+    /**
+     * Sets a range of a section to the same material, in one step when the range covers the whole section.
+     * Range bounds are coordinates inside the section, 0-15.
+     */
+    void fill(int sectionX, int sectionY, int sectionZ, int fromX, int fromY, int fromZ, int toX, int toY, int toZ,
+              Material material) {
+        if (fromX == 0 && fromY == 0 && fromZ == 0 && toX == 15 && toY == 15 && toZ == 15) {
+            fill(sectionX, sectionY, sectionZ, material);
+            return;
+        }
+        char id = paletteId(material);
+        char[] section = section(sectionX, sectionY, sectionZ, true);
+        for (int y = fromY; y <= toY; y++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                int index = y << 8 | z << 4;
+                Arrays.fill(section, index | fromX, (index | toX) + 1, id);
+            }
+        }
+    }
+
+    /**
+     * Calls the consumer for every stored position.
+     *
+     * @param consumer The consumer receiving world coordinates and the stored material.
+     */
+    void forEach(BlockConsumer consumer) {
+        Material[] palette = this.palette;
+        for (Map.Entry<Long, char[]> entry : sections.entrySet()) {
+            visit(entry.getKey(), entry.getValue(), palette, consumer);
+        }
+    }
+
+    /**
+     * Calls the consumer for every stored position, visiting sections in parallel.
+     * The consumer must be thread safe.
+     *
+     * @param consumer The consumer receiving world coordinates and the stored material.
+     */
+    void parallelForEach(BlockConsumer consumer) {
+        Material[] palette = this.palette;
+        sections.entrySet().parallelStream()
+                .forEach(entry -> visit(entry.getKey(), entry.getValue(), palette, consumer));
+    }
+
+    private static void visit(long key, char[] section, Material[] palette, BlockConsumer consumer) {
+        boolean uniform = isUniform(section);
+        if (uniform && section[0] == EMPTY) return;
+        int baseX = sectionX(key) << 4;
+        int baseY = sectionY(key) << 4;
+        int baseZ = sectionZ(key) << 4;
+        for (int i = 0; i < SECTION_VOLUME; i++) {
+            char id = section[uniform ? 0 : i];
+            if (id == EMPTY) continue;
+            consumer.accept(baseX + (i & 15), baseY + (i >> 8), baseZ + ((i >> 4) & 15), palette[id]);
+        }
+    }
+
+    /**
+     * Replaces every occurrence of a material.
+     *
+     * @param from The material to replace.
+     * @param to   The replacement material.
+     */
+    void replace(Material from, Material to) {
+        char fromId = idsByOrdinal[from.ordinal()];
+        if (fromId == EMPTY || from == to) return;
+        char toId = paletteId(to);
+        sections.values().parallelStream().forEach(section -> {
+            for (int i = 0; i < section.length; i++) {
+                if (section[i] == fromId) section[i] = toId;
+            }
+        });
+    }
+
+    boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    /**
+     * Counts the stored positions.
+     *
+     * @return The number of stored positions.
+     */
+    long count() {
+        return sections.values().parallelStream().mapToLong(section -> {
+            long count = 0;
+            for (char id : section) {
+                if (id != EMPTY) count++;
+            }
+            // a uniform section counts for every position it stands for
+            return count * (SECTION_VOLUME / section.length);
+        }).sum();
+    }
+
+    /**
+     * Estimates the memory held by the stored sections.
+     *
+     * @return The approximate size in bytes.
+     */
+    long memoryUsage() {
+        long bytes = 0;
+        for (char[] section : sections.values()) {
+            // array header and map entry overhead
+            bytes += section.length * 2L + 64;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the palette and the sections as they are stored, uniform sections included.
+     *
+     * @param out The output to write to.
+     * @throws IOException If the data cannot be written.
+     */
+    void write(DataOutput out) throws IOException {
+        Material[] palette = this.palette;
+        out.writeInt(palette.length);
+        for (int id = 1; id < palette.length; id++) {
+            out.writeUTF(palette[id].name());
+        }
+        out.writeInt(sections.size());
+        for (Map.Entry<Long, char[]> entry : sections.entrySet()) {
+            out.writeLong(entry.getKey());
+            char[] section = entry.getValue();
+            out.writeShort(section.length == SECTION_VOLUME ? 0 : section.length);
+            for (char id : section) {
+                out.writeChar(id);
+            }
+        }
+    }
+
+    /**
+     * Reads a store written by {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from.
+     * @return The read store.
+     * @throws IOException If the data cannot be read or names an unknown material.
+     */
+    static BlockStore read(DataInput in) throws IOException {
+        BlockStore store = new BlockStore();
+        int paletteSize = in.readInt();
+        // Ids are remapped in case the palette is registered in another order
+        char[] ids = new char[paletteSize];
+        for (int id = 1; id < paletteSize; id++) {
+            String name = in.readUTF();
+            Material material = Material.getMaterial(name);
+            if (material == null) throw new IOException("Unknown material: " + name);
+            ids[id] = store.paletteId(material);
+        }
+        int sectionCount = in.readInt();
+        for (int i = 0; i < sectionCount; i++) {
+            long key = in.readLong();
+            int length = in.readUnsignedShort();
+            char[] section = new char[length == 0 ? SECTION_VOLUME : length];
+            for (int j = 0; j < section.length; j++) {
+                section[j] = ids[in.readChar()];
+            }
+            store.sections.put(key, section);
+        }
+        return store;
+    }
+
+    static boolean isUniform(char[] section) {
+        return section.length == 1;
+    }
+
+    /**
+     * Gets the index of a position inside its section, using the same y, z, x order as Minecraft.
+     */
+    static int index(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+
+    static long sectionKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionX & 0xFFFFFF) << 40) | ((long) (sectionZ & 0xFFFFFF) << 16) | (sectionY & 0xFFFF);
+    }
+
+    static int sectionX(long key) {
+        return (int) (key >> 40);
+    }
+
+    static int sectionY(long key) {
+        return (short) key;
+    }
+
+    static int sectionZ(long key) {
+        return (int) (key << 24 >> 40);
+    }
+
+    interface BlockConsumer {
+
+        void accept(int x, int y, int z, Material material);
+
+    }
+
+}
@@ -0,0 +1,356 @@
+package me.athish.tachyon;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies the blocks of a cuboid into a {@link BlockStore}.
+ * On 1.13+ chunk sections are read in bulk from their palettes, older versions go through {@link ChunkSnapshot}s
+ * which are taken on the main thread, after which they can be read from any thread.
+ */
+final class ChunkCapture {
+    /**
+     * <i>ChunkSnapshot.getBlockType(int, int, int)</i>, only available on 1.13+
+     */
+    private static final MethodHandle GET_BLOCK_TYPE;
+    /**
+     * Legacy block ids to materials, only used below 1.13
+     */
+    private static final Material[] MATERIALS_BY_ID;
+    /**
+     * Snapshots taken but not decoded yet, bounding the memory of a copy below 1.13
+     */
+    private static final int MAX_SNAPSHOTS_IN_FLIGHT = Math.max(4, ForkJoinPool.getCommonPoolParallelism() * 2);
+
+    static {
+        MethodHandle getBlockType = null;
+        Material[] materialsById = null;
+        if (ReflectionUtils.supports(13)) {
+            try {
+                getBlockType = MethodHandles.lookup().findVirtual(ChunkSnapshot.class, "getBlockType",
+                        MethodType.methodType(Material.class, int.class, int.class, int.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                e.printStackTrace();
+            }
+        } else {
+            materialsById = new Material[4096];
+            for (Material material : Material.values()) {
+                int id = material.getId();
+                if (material.isBlock() && id >= 0 && id < materialsById.length) materialsById[id] = material;
+            }
+        }
+        GET_BLOCK_TYPE = getBlockType;
+        MATERIALS_BY_ID = materialsById;
+    }
+
+    private ChunkCapture() {}
+
+    /**
+     * Copies every block of a cuboid into a block store.
+     * Chunks are read through the shared workload queue so the capture is spread over several ticks.
+     * On 1.13+ the chunk sections are read directly from their palettes on the main thread,
+     * older versions take chunk snapshots that are decoded in parallel off the main thread.
+     * The reads are queued in the workload job of the copy, so cancelling the copy drops the chunks left at once.
+     *
+     * @param world The world to capture.
+     * @param store The store receiving the blocks.
+     * @param job   The job to report progress to.
+     * @param minX  The minimum block x coordinate.
+     * @param minY  The minimum block y coordinate.
+     * @param minZ  The minimum block z coordinate.
+     * @param maxX  The maximum block x coordinate.
+     * @param maxY  The maximum block y coordinate.
+     * @param maxZ  The maximum block z coordinate.
+     * @return A future completing once every block was stored.
+     */
+    static CompletableFuture<Void> captureAsync(World world, BlockStore store, CopyJob job,
+                                                int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int sizeX = (maxX >> 4) - minChunkX + 1;
+        int sizeZ = (maxZ >> 4) - minChunkZ + 1;
+        WorkloadJob capture = job.job();
+        if (BlockChanger.canReadSections()) {
+            List<Runnable> tasks = new ArrayList<>(sizeX * sizeZ);
+            // tasks run one after another on the main thread, so they can share the buffer
+            int[] states = new int[BlockStore.SECTION_VOLUME];
+            for (int i = 0; i < sizeX * sizeZ; i++) {
+                int chunkX = minChunkX + i % sizeX;
+                int chunkZ = minChunkZ + i / sizeX;
+                tasks.add(() -> {
+                    readChunk(world, store, states, chunkX, chunkZ, minX, minY, minZ, maxX, maxY, maxZ);
+                    job.chunkDone();
+                });
+            }
+            BlockChanger.runAsynchronously(capture, tasks);
+            return BlockChanger.finishJob(capture);
+        }
+        SnapshotDecoder decoder = new SnapshotDecoder(world, store, job, minX, minY, minZ, maxX, maxY, maxZ);
+        for (int i = 0; i < sizeX * sizeZ; i++) {
+            BlockChanger.queueWorkload(capture, decoder.chunk(minChunkX + i % sizeX, minChunkZ + i / sizeX));
+        }
+        return BlockChanger.finishJob(capture).thenCompose(v -> decoder.decoded());
+    }
+
+    /**
+     * Copies every block of a cuboid into a block store right away.
+     * Falls back to {@link #captureAsync} and waits for it when not on the main thread.
+     *
+     * @param world The world to capture.
+     * @param store The store receiving the blocks.
+     * @param minX  The minimum block x coordinate.
+     * @param minY  The minimum block y coordinate.
+     * @param minZ  The minimum block z coordinate.
+     * @param maxX  The maximum block x coordinate.
+     * @param maxY  The maximum block y coordinate.
+     * @param maxZ  The maximum block z coordinate.
+     */
+    static void capture(World world, BlockStore store, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (!Bukkit.isPrimaryThread()) {
+            CopyJob job = new CopyJob(CopyJob.countChunks(minX, minZ, maxX, maxZ));
+            captureAsync(world, store, job, minX, minY, minZ, maxX, maxY, maxZ).join();
+            return;
+        }
+        if (BlockChanger.canReadSections()) {
+            int[] states = new int[BlockStore.SECTION_VOLUME];
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                    readChunk(world, store, states, chunkX, chunkZ, minX, minY, minZ, maxX, maxY, maxZ);
+                }
+            }
+            return;
+        }
+        // Snapshots are taken and decoded a batch at a time, so only one batch is held at once
+        int sizeX = (maxX >> 4) - (minX >> 4) + 1;
+        int chunks = sizeX * ((maxZ >> 4) - (minZ >> 4) + 1);
+        ChunkSnapshot[] snapshots = new ChunkSnapshot[Math.min(chunks, MAX_SNAPSHOTS_IN_FLIGHT)];
+        for (int from = 0; from < chunks; from += snapshots.length) {
+            int batch = Math.min(snapshots.length, chunks - from);
+            for (int i = 0; i < batch; i++) {
+                snapshots[i] = snapshot(world, (minX >> 4) + (from + i) % sizeX, (minZ >> 4) + (from + i) / sizeX);
+            }
+            ForkJoinPool.commonPool()
+                    .invoke(new DecodeTask(snapshots, 0, batch, store, minX, minY, minZ, maxX, maxY, maxZ));
+        }
+    }
+
+    /**
+     * Reads the sections of a chunk overlapped by the cuboid straight from their palettes.
+     * The section palette is translated to store palette ids once, then the states are copied as plain array reads.
+     * Missing and single material sections are stored without visiting their positions.
+     */
+    private static void readChunk(World world, BlockStore store, int[] states, int chunkX, int chunkZ,
+                                  int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        int fromX = Math.max(minX, chunkX << 4) & 15;
+        int fromZ = Math.max(minZ, chunkZ << 4) & 15;
+        int toX = Math.min(maxX, (chunkX << 4) + 15) & 15;
+        int toZ = Math.min(maxZ, (chunkZ << 4) + 15) & 15;
+        char[] ids = new char[0];
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+            int fromY = Math.max(minY, sectionY << 4) & 15;
+            int toY = Math.min(maxY, (sectionY << 4) + 15) & 15;
+            Material[] palette = BlockChanger.readSection(world, chunkX, chunkZ, sectionY << 4, states);
+            if (palette == null || palette.length == 1) {
+                store.fill(chunkX, sectionY, chunkZ, fromX, fromY, fromZ, toX, toY, toZ,
+                        palette == null ? Material.AIR : palette[0]);
+                continue;
+            }
+            if (ids.length < palette.length) ids = new char[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                ids[i] = store.paletteId(palette[i]);
+            }
+            char[] section = store.section(chunkX, sectionY, chunkZ, true);
+            for (int y = fromY; y <= toY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int index = y << 8 | z << 4;
+                    for (int x = fromX; x <= toX; x++) {
+                        section[index | x] = ids[states[index | x]];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the part of the cuboid inside one chunk column from its snapshot.
+     * Every overlapped section is looked up once and written directly, without going through the section map per block.
+     * Sections the snapshot reports as empty are stored as air without reading their positions.
+     */
+    private static void decode(ChunkSnapshot snapshot, BlockStore store, int minX, int minY, int minZ,
+                               int maxX, int maxY, int maxZ) {
+        int chunkX = snapshot.getX();
+        int chunkZ = snapshot.getZ();
+        int fromX = Math.max(minX, chunkX << 4) & 15;
+        int fromZ = Math.max(minZ, chunkZ << 4) & 15;
+        int toX = Math.min(maxX, (chunkX << 4) + 15) & 15;
+        int toZ = Math.min(maxZ, (chunkZ << 4) + 15) & 15;
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+            int baseY = sectionY << 4;
+            int fromY = Math.max(minY, baseY) & 15;
+            int toY = Math.min(maxY, baseY + 15) & 15;
+            if (sectionY >= 0 && sectionY < 16 && snapshot.isSectionEmpty(sectionY)) {
+                store.fill(chunkX, sectionY, chunkZ, fromX, fromY, fromZ, toX, toY, toZ, Material.AIR);
+                continue;
+            }
+            char[] section = store.section(chunkX, sectionY, chunkZ, true);
+            for (int y = fromY; y <= toY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int index = y << 8 | z << 4;
+                    for (int x = fromX; x <= toX; x++) {
+                        section[index | x] = store.paletteId(getType(snapshot, x, baseY + y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a range of chunk columns, splitting it in halves until a single column is left.
+     * Snapshots are released as soon as they are decoded so they don't outlive their column.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+        private final ChunkSnapshot[] snapshots;
+        private final int from;
+        private final int to;
+        private final BlockStore store;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        private DecodeTask(ChunkSnapshot[] snapshots, int from, int to, BlockStore store,
+                           int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.snapshots = snapshots;
+            this.from = from;
+            this.to = to;
+            this.store = store;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    decode(snapshots[from], store, minX, minY, minZ, maxX, maxY, maxZ);
+                    snapshots[from] = null;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(snapshots, from, middle, store, minX, minY, minZ, maxX, maxY, maxZ),
+                    new DecodeTask(snapshots, middle, to, store, minX, minY, minZ, maxX, maxY, maxZ));
+        }
+    }
+
+    /**
+     * Takes the snapshots of an asynchronous capture on the main thread and decodes each one off the main thread
+     * as soon as it is taken, dropping it once decoded. The capture waits while
+     * {@link #MAX_SNAPSHOTS_IN_FLIGHT} snapshots are being decoded, so a copy never holds more than that.
+     */
+    private static final class SnapshotDecoder {
+        private final World world;
+        private final BlockStore store;
+        private final CopyJob job;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        /**
+         * Only used on the main thread
+         */
+        private final List<CompletableFuture<Void>> decodes = new ArrayList<>();
+
+        private SnapshotDecoder(World world, BlockStore store, CopyJob job,
+                                int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.world = world;
+            this.store = store;
+            this.job = job;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        private BlockChanger.Workload chunk(int chunkX, int chunkZ) {
+            return new BlockChanger.Workload() {
+                @Override
+                public boolean isReady() {
+                    return inFlight.get() < MAX_SNAPSHOTS_IN_FLIGHT;
+                }
+
+                @Override
+                public boolean compute() {
+                    ChunkSnapshot snapshot = snapshot(world, chunkX, chunkZ);
+                    inFlight.incrementAndGet();
+                    decodes.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            decode(snapshot, store, minX, minY, minZ, maxX, maxY, maxZ);
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    }));
+                    job.chunkDone();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Gets a future completing once every snapshot taken is decoded, to be called once every chunk was taken.
+         */
+        private CompletableFuture<Void> decoded() {
+            return CompletableFuture.allOf(decodes.toArray(new CompletableFuture[0]));
+        }
+    }
+
+    private static ChunkSnapshot snapshot(World world, int chunkX, int chunkZ) {
+        // Heightmaps and biomes are not needed, skipping them keeps the snapshot cheap.
+        return world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+    }
+
+    /**
+     * Reads the material of a block from a snapshot. Safe to call from any thread.
+     *
+     * @param snapshot The snapshot to read from.
+     * @param x        The x coordinate inside the chunk, 0-15.
+     * @param y        The world y coordinate.
+     * @param z        The z coordinate inside the chunk, 0-15.
+     * @return The material of the block.
+     */
+    static Material getType(ChunkSnapshot snapshot, int x, int y, int z) {
+        if (GET_BLOCK_TYPE != null) {
+            try {
+                return (Material) GET_BLOCK_TYPE.invokeExact(snapshot, x, y, z);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Material material = MATERIALS_BY_ID[snapshot.getBlockTypeId(x, y, z)];
+        return material != null ? material : Material.AIR;
+    }
+
+}
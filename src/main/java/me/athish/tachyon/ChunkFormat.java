@@ -0,0 +1,396 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Knows how the block sections of a chunk are laid out in region files across versions:
+ * numeric ids below 1.13, palettes with values spanning longs below 1.16, padded palettes below 1.18,
+ * and the root level "sections" list with "block_states" containers from 1.18.
+ * Only depends on the {@link Material} enum, so it works without a running server.
+ * Block states are resolved by material only, properties such as stair facing are not kept,
+ * and below 1.13 data values such as wool colours are read as 0 and written as 0.
+ * <p>
+ * Blocks are resolved through the {@link Material} enum on the classpath, so its names have to match
+ * the version the world was saved with: flattened block names need a 1.13+ API, numeric ids an older one.
+ * Chunks from the other side of the flattening and blocks unknown to the enum are refused
+ * with an {@link IOException} rather than read as air or written under a name the game rejects.
+ */
+final class ChunkFormat {
+    /**
+     * 17w47a, the flattening, palettes replace numeric ids
+     */
+    static final int FLATTENING = 1451;
+    /**
+     * 19w11a, "isLightOn" replaces "LightPopulated" and sections no longer need light arrays
+     */
+    static final int LIGHT_ENGINE = 1901;
+    /**
+     * 20w17a, palette values no longer span two longs
+     */
+    static final int PADDED_STATES = 2527;
+    /**
+     * 21w43a, the "Level" compound is gone and sections use "block_states"
+     */
+    static final int NO_LEVEL = 2844;
+
+    /**
+     * Whether the {@link Material} enum on the classpath uses the flattened names of 1.13+
+     */
+    private static final boolean FLATTENED_MATERIALS = Material.getMaterial("OAK_PLANKS") != null;
+
+    private static final Map<String, Material> MATERIALS_BY_NAME = new ConcurrentHashMap<>();
+    private static volatile Material[] legacyMaterials;
+
+    private ChunkFormat() {}
+
+    static int dataVersion(Map<String, Object> chunk) {
+        return Nbt.getInt(chunk, "DataVersion", 0);
+    }
+
+    /**
+     * Checks that the blocks of a chunk can be resolved through the {@link Material} enum on the classpath.
+     *
+     * @throws IOException If the chunk was saved on the other side of the flattening than the enum.
+     */
+    static void checkVersion(int dataVersion) throws IOException {
+        if (dataVersion >= FLATTENING == FLATTENED_MATERIALS) return;
+        throw new IOException(dataVersion >= FLATTENING
+                ? "Chunk saved with 1.13+ (data version " + dataVersion + "), the Bukkit API on the classpath is older"
+                : "Chunk saved before 1.13 (data version " + dataVersion + "), the Bukkit API on the classpath is newer");
+    }
+
+    /**
+     * Gets the compound holding the sections of a chunk.
+     */
+    static Map<String, Object> level(Map<String, Object> chunk, int dataVersion) {
+        if (dataVersion >= NO_LEVEL) return chunk;
+        Map<String, Object> level = Nbt.compound(chunk, "Level");
+        return level != null ? level : chunk;
+    }
+
+    /**
+     * Gets the sections of a chunk by section y coordinate.
+     */
+    static Map<Integer, Map<String, Object>> sections(Map<String, Object> level, int dataVersion) {
+        Nbt.ListTag list = Nbt.list(level, dataVersion >= NO_LEVEL ? "sections" : "Sections");
+        Map<Integer, Map<String, Object>> sections = new HashMap<>();
+        if (list == null) return sections;
+        for (Map<String, Object> section : list.compounds()) {
+            sections.put((int) (byte) Nbt.getInt(section, "Y", 0), section);
+        }
+        return sections;
+    }
+
+    /**
+     * Adds a section to a chunk, creating the section list when needed.
+     */
+    static void addSection(Map<String, Object> level, int dataVersion, Map<String, Object> section) {
+        String key = dataVersion >= NO_LEVEL ? "sections" : "Sections";
+        Nbt.ListTag list = Nbt.list(level, key);
+        if (list == null || list.elementType != Nbt.TAG_COMPOUND) {
+            Nbt.ListTag compounds = new Nbt.ListTag(Nbt.TAG_COMPOUND);
+            if (list != null) compounds.addAll(list.compounds());
+            level.put(key, list = compounds);
+        }
+        list.add(section);
+    }
+
+    /**
+     * Creates an all air section.
+     */
+    static Section create(int sectionY, int dataVersion) {
+        Map<String, Object> tag = new LinkedHashMap<>();
+        tag.put("Y", (byte) sectionY);
+        if (dataVersion < LIGHT_ENGINE) {
+            tag.put("BlockLight", new byte[2048]);
+            tag.put("SkyLight", new byte[2048]);
+        }
+        Nbt.ListTag palette = null;
+        if (dataVersion >= FLATTENING) {
+            palette = new Nbt.ListTag(Nbt.TAG_COMPOUND);
+            palette.add(state(Material.AIR));
+        }
+        return new Section(tag, palette);
+    }
+
+    /**
+     * Decodes the blocks of a section, or turns it into an all air section when it holds no blocks yet.
+     *
+     * @param tag         The section tag, or null to create a new one.
+     * @param sectionY    The section y coordinate.
+     * @param dataVersion The data version of the chunk.
+     * @return The section, whose tag has to be added to the chunk when none was given.
+     */
+    static Section decodeOrCreate(Map<String, Object> tag, int sectionY, int dataVersion) {
+        Section section = tag == null ? null : decode(tag, dataVersion);
+        if (section != null) return section;
+        Section created = create(sectionY, dataVersion);
+        if (tag == null) return created;
+        // keep what the existing tag holds, like light data
+        for (Map.Entry<String, Object> entry : created.tag.entrySet()) {
+            tag.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return new Section(tag, created.palette);
+    }
+
+    /**
+     * Decodes the blocks of a section.
+     *
+     * @return The decoded section, or null when the section holds no blocks.
+     */
+    static Section decode(Map<String, Object> tag, int dataVersion) {
+        if (dataVersion < FLATTENING) {
+            byte[] blocks = (byte[]) tag.get("Blocks");
+            if (blocks == null || blocks.length < BlockStore.SECTION_VOLUME) return null;
+            byte[] add = (byte[]) tag.get("Add");
+            byte[] data = (byte[]) tag.get("Data");
+            Section section = new Section(tag, null);
+            for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                int id = blocks[i] & 0xFF;
+                if (add != null) id |= nibble(add, i) << 8;
+                section.states[i] = id << 4 | (data != null ? nibble(data, i) : 0);
+            }
+            return section;
+        }
+
+        Nbt.ListTag palette;
+        long[] data;
+        if (dataVersion >= NO_LEVEL) {
+            Map<String, Object> container = Nbt.compound(tag, "block_states");
+            if (container == null) return null;
+            palette = Nbt.list(container, "palette");
+            data = (long[]) container.get("data");
+        } else {
+            palette = Nbt.list(tag, "Palette");
+            data = (long[]) tag.get("BlockStates");
+        }
+        if (palette == null || palette.isEmpty()) return null;
+        Section section = new Section(tag, palette);
+        if (data == null || palette.size() == 1) return section;
+
+        int bits = bits(palette.size());
+        long mask = (1L << bits) - 1;
+        int[] states = section.states;
+        if (dataVersion >= PADDED_STATES) {
+            int valuesPerLong = 64 / bits;
+            int i = 0;
+            for (int w = 0; w < data.length && i < BlockStore.SECTION_VOLUME; w++) {
+                long word = data[w];
+                for (int j = 0; j < valuesPerLong && i < BlockStore.SECTION_VOLUME; j++) {
+                    states[i++] = (int) (word & mask);
+                    word >>>= bits;
+                }
+            }
+        } else {
+            for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                long bitIndex = (long) i * bits;
+                int start = (int) (bitIndex >> 6);
+                int offset = (int) (bitIndex & 63);
+                if (start >= data.length) break;
+                long value = data[start] >>> offset;
+                if (offset + bits > 64 && start + 1 < data.length) value |= data[start + 1] << (64 - offset);
+                states[i] = (int) (value & mask);
+            }
+        }
+        for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+            // out of range values are treated as the first entry rather than failing the whole chunk
+            if (states[i] >= palette.size()) states[i] = 0;
+        }
+        return section;
+    }
+
+    /**
+     * Writes the blocks of a section back into its tag, dropping palette entries that are no longer used.
+     */
+    static void encode(Section section, int dataVersion) {
+        Map<String, Object> tag = section.tag;
+        int[] states = section.states;
+        if (dataVersion < FLATTENING) {
+            byte[] blocks = new byte[BlockStore.SECTION_VOLUME];
+            byte[] data = new byte[BlockStore.SECTION_VOLUME / 2];
+            byte[] add = null;
+            for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                int id = states[i] >> 4;
+                blocks[i] = (byte) id;
+                setNibble(data, i, states[i] & 15);
+                if (id > 0xFF) {
+                    if (add == null) add = new byte[BlockStore.SECTION_VOLUME / 2];
+                    setNibble(add, i, id >> 8);
+                }
+            }
+            tag.put("Blocks", blocks);
+            tag.put("Data", data);
+            if (add != null) {
+                tag.put("Add", add);
+            } else {
+                tag.remove("Add");
+            }
+            return;
+        }
+
+        Nbt.ListTag palette = section.palette;
+        int[] remap = new int[palette.size()];
+        Arrays.fill(remap, -1);
+        Nbt.ListTag compact = new Nbt.ListTag(Nbt.TAG_COMPOUND);
+        for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+            int state = states[i];
+            if (remap[state] == -1) {
+                remap[state] = compact.size();
+                compact.add(palette.get(state));
+            }
+            states[i] = remap[state];
+        }
+
+        long[] data = null;
+        if (compact.size() > 1 || dataVersion < NO_LEVEL) {
+            int bits = bits(compact.size());
+            if (dataVersion >= PADDED_STATES) {
+                int valuesPerLong = 64 / bits;
+                data = new long[(BlockStore.SECTION_VOLUME + valuesPerLong - 1) / valuesPerLong];
+                for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                    data[i / valuesPerLong] |= (long) states[i] << (i % valuesPerLong * bits);
+                }
+            } else {
+                data = new long[BlockStore.SECTION_VOLUME * bits / 64];
+                for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                    long bitIndex = (long) i * bits;
+                    int start = (int) (bitIndex >> 6);
+                    int offset = (int) (bitIndex & 63);
+                    data[start] |= (long) states[i] << offset;
+                    if (offset + bits > 64) data[start + 1] |= (long) states[i] >>> (64 - offset);
+                }
+            }
+        }
+
+        if (dataVersion >= NO_LEVEL) {
+            Map<String, Object> container = Nbt.compound(tag, "block_states");
+            if (container == null) tag.put("block_states", container = new LinkedHashMap<>());
+            container.put("palette", compact);
+            if (data != null) {
+                container.put("data", data);
+            } else {
+                container.remove("data");
+            }
+        } else {
+            tag.put("Palette", compact);
+            tag.put("BlockStates", data);
+        }
+    }
+
+    /**
+     * Gets the material of a section state: a palette entry, or a legacy id and data value below 1.13.
+     *
+     * @throws IOException If the block is unknown to the {@link Material} enum on the classpath.
+     */
+    static Material material(Section section, int state) throws IOException {
+        if (section.palette == null) {
+            int id = (state >> 4) & 0xFFF;
+            Material material = legacyMaterials()[id];
+            if (material == null) throw new IOException("Unknown block id " + id);
+            return material;
+        }
+        Object entry = section.palette.get(state);
+        Object name = entry instanceof Map ? ((Map<?, ?>) entry).get("Name") : null;
+        if (!(name instanceof String)) throw new IOException("Palette entry without a name: " + entry);
+        return material((String) name);
+    }
+
+    /**
+     * Gets the state to store for a material, adding it to the section palette when needed.
+     * An existing entry of the same block is reused whatever its properties, since the game rejects
+     * palettes listing the same state twice.
+     * Below 1.13 the state is the legacy id with a zero data value.
+     *
+     * @throws IOException If an existing palette entry is unknown to the {@link Material} enum on the classpath.
+     */
+    @SuppressWarnings("deprecation")
+    static int state(Section section, Material material, Map<Material, Integer> cache) throws IOException {
+        if (section.palette == null) return material.getId() << 4;
+        Integer cached = cache.get(material);
+        if (cached != null) return cached;
+        int state = -1;
+        for (int i = 0; i < section.palette.size() && state == -1; i++) {
+            if (material(section, i) == material) state = i;
+        }
+        if (state == -1) {
+            state = section.palette.size();
+            section.palette.add(state(material));
+        }
+        cache.put(material, state);
+        return state;
+    }
+
+    private static Map<String, Object> state(Material material) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("Name", "minecraft:" + material.name().toLowerCase(Locale.ROOT));
+        return state;
+    }
+
+    /**
+     * Resolves a namespaced block name.
+     *
+     * @throws IOException If the block is unknown to the {@link Material} enum on the classpath.
+     */
+    static Material material(String name) throws IOException {
+        // Unknown names are not cached, computeIfAbsent keeps no entry for them
+        Material material = MATERIALS_BY_NAME.computeIfAbsent(name, key ->
+                Material.matchMaterial(key.indexOf(':') >= 0 ? key.substring(key.indexOf(':') + 1) : key));
+        if (material == null) throw new IOException("Unknown block " + name);
+        return material;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Material[] legacyMaterials() {
+        Material[] materials = legacyMaterials;
+        if (materials != null) return materials;
+        materials = new Material[4096];
+        for (Material material : Material.values()) {
+            try {
+                int id = material.getId();
+                if (id >= 0 && id < materials.length && materials[id] == null) materials[id] = material;
+            } catch (IllegalArgumentException ignored) {
+                // modern materials have no legacy id
+            }
+        }
+        return legacyMaterials = materials;
+    }
+
+    private static int bits(int paletteSize) {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    private static int nibble(byte[] array, int index) {
+        return (array[index >> 1] >> ((index & 1) << 2)) & 15;
+    }
+
+    private static void setNibble(byte[] array, int index, int value) {
+        int shift = (index & 1) << 2;
+        array[index >> 1] = (byte) ((array[index >> 1] & ~(15 << shift)) | (value & 15) << shift);
+    }
+
+    /**
+     * The blocks of a section, one state per position in y, z, x order.
+     */
+    static final class Section {
+        final Map<String, Object> tag;
+        /**
+         * The block state palette, null below 1.13 where states are legacy ids and data values.
+         */
+        final Nbt.ListTag palette;
+        final int[] states = new int[BlockStore.SECTION_VOLUME];
+
+        private Section(Map<String, Object> tag, Nbt.ListTag palette) {
+            this.tag = tag;
+            this.palette = palette;
+        }
+    }
+
+}
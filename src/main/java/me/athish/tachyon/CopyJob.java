@@ -0,0 +1,126 @@
+package me.athish.tachyon;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A running copy started by {@link Schematic#copyAsync(org.bukkit.Location, org.bukkit.Location, org.bukkit.Location)}.
+ * Chunks are read a few at a time within the per tick budget of the workload queue,
+ * the job reports how far it got and can be cancelled at any point.
+ */
+public class CopyJob {
+    private final WorkloadJob job = new WorkloadJob();
+    private final int totalChunks;
+    private final AtomicInteger chunksDone = new AtomicInteger();
+    private final CompletableFuture<Schematic> future = new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile boolean cancelled;
+
+    CopyJob(int totalChunks) {
+        this.totalChunks = totalChunks;
+        future.whenComplete((schematic, e) -> endNanos = System.nanoTime());
+    }
+
+    /**
+     * Counts the chunks overlapped by a block range.
+     */
+    static int countChunks(int minX, int minZ, int maxX, int maxZ) {
+        return ((maxX >> 4) - (minX >> 4) + 1) * ((maxZ >> 4) - (minZ >> 4) + 1);
+    }
+
+    /**
+     * Gets the future completing with the copied schematic.
+     * It completes with a {@link java.util.concurrent.CancellationException} when the job is cancelled.
+     *
+     * @return The future of the schematic.
+     */
+    public CompletableFuture<Schematic> getFuture() {
+        return future;
+    }
+
+    /**
+     * Stops the copy. Chunks that were not read yet are dropped from the workload queue at once.
+     *
+     * @return true if the job was still running.
+     */
+    public boolean cancel() {
+        if (future.isDone()) return false;
+        cancelled = true;
+        job.cancel();
+        return future.cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public int getChunksDone() {
+        return chunksDone.get();
+    }
+
+    /**
+     * Gets the progress of the copy.
+     *
+     * @return The fraction of chunks read, between 0 and 1.
+     */
+    public double getProgress() {
+        return totalChunks == 0 ? 1 : (double) chunksDone.get() / totalChunks;
+    }
+
+    /**
+     * Gets the average number of chunks read per second since the job started.
+     *
+     * @return The throughput in chunks per second.
+     */
+    public double getChunksPerSecond() {
+        long elapsed = (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        return elapsed <= 0 ? 0 : chunksDone.get() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Estimates the time left from the current throughput.
+     *
+     * @return The estimated remaining time in milliseconds, 0 once done, or -1 while nothing was read yet.
+     */
+    public long getEstimatedMillisRemaining() {
+        if (future.isDone()) return 0;
+        double rate = getChunksPerSecond();
+        if (rate <= 0) return -1;
+        return (long) ((totalChunks - chunksDone.get()) / rate * 1000);
+    }
+
+    /**
+     * Gets the job queueing the chunk reads, cancelled along with the copy.
+     */
+    WorkloadJob job() {
+        return job;
+    }
+
+    void chunkDone() {
+        chunksDone.incrementAndGet();
+    }
+
+    /**
+     * Completes the job with the outcome of the copy, unless it was cancelled in the meantime.
+     */
+    void complete(CompletableFuture<Schematic> copy) {
+        copy.whenComplete((schematic, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(schematic);
+            }
+        });
+    }
+
+}
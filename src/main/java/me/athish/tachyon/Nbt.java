@@ -0,0 +1,259 @@
+package me.athish.tachyon;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal NBT reader and writer used to read and write region files without a server.
+ * Compounds are read as {@link Map}s, lists as {@link ListTag}s and every other tag as its boxed value or array.
+ */
+final class Nbt {
+    static final byte TAG_END = 0;
+    static final byte TAG_BYTE = 1;
+    static final byte TAG_SHORT = 2;
+    static final byte TAG_INT = 3;
+    static final byte TAG_LONG = 4;
+    static final byte TAG_FLOAT = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_BYTE_ARRAY = 7;
+    static final byte TAG_STRING = 8;
+    static final byte TAG_LIST = 9;
+    static final byte TAG_COMPOUND = 10;
+    static final byte TAG_INT_ARRAY = 11;
+    static final byte TAG_LONG_ARRAY = 12;
+
+    private Nbt() {}
+
+    /**
+     * Reads a named root compound.
+     *
+     * @param in The input to read from.
+     * @return The root compound.
+     * @throws IOException If the data is not a compound or cannot be read.
+     */
+    static Map<String, Object> read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type != TAG_COMPOUND) throw new IOException("Root tag is not a compound: " + type);
+        in.readUTF();
+        return readCompound(in);
+    }
+
+    /**
+     * Writes a root compound with an empty name.
+     *
+     * @param out  The output to write to.
+     * @param root The root compound.
+     * @throws IOException If the data cannot be written.
+     */
+    static void write(DataOutput out, Map<String, Object> root) throws IOException {
+        out.writeByte(TAG_COMPOUND);
+        out.writeUTF("");
+        writeCompound(out, root);
+    }
+
+    private static Map<String, Object> readCompound(DataInput in) throws IOException {
+        Map<String, Object> compound = new LinkedHashMap<>();
+        byte type;
+        while ((type = in.readByte()) != TAG_END) {
+            compound.put(in.readUTF(), readPayload(in, type));
+        }
+        return compound;
+    }
+
+    private static Object readPayload(DataInput in, byte type) throws IOException {
+        switch (type) {
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SHORT:
+                return in.readShort();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BYTE_ARRAY: {
+                byte[] array = new byte[in.readInt()];
+                in.readFully(array);
+                return array;
+            }
+            case TAG_STRING:
+                return in.readUTF();
+            case TAG_LIST: {
+                byte elementType = in.readByte();
+                int length = in.readInt();
+                ListTag list = new ListTag(elementType, Math.max(length, 0));
+                for (int i = 0; i < length; i++) {
+                    list.add(readPayload(in, elementType));
+                }
+                return list;
+            }
+            case TAG_COMPOUND:
+                return readCompound(in);
+            case TAG_INT_ARRAY: {
+                int[] array = new int[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readInt();
+                }
+                return array;
+            }
+            case TAG_LONG_ARRAY: {
+                long[] array = new long[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readLong();
+                }
+                return array;
+            }
+            default:
+                throw new IOException("Unknown tag type: " + type);
+        }
+    }
+
+    private static void writeCompound(DataOutput out, Map<String, Object> compound) throws IOException {
+        for (Map.Entry<String, Object> entry : compound.entrySet()) {
+            byte type = typeOf(entry.getValue());
+            out.writeByte(type);
+            out.writeUTF(entry.getKey());
+            writePayload(out, type, entry.getValue());
+        }
+        out.writeByte(TAG_END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(DataOutput out, byte type, Object value) throws IOException {
+        switch (type) {
+            case TAG_BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case TAG_SHORT:
+                out.writeShort((Short) value);
+                break;
+            case TAG_INT:
+                out.writeInt((Integer) value);
+                break;
+            case TAG_LONG:
+                out.writeLong((Long) value);
+                break;
+            case TAG_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case TAG_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case TAG_BYTE_ARRAY:
+                out.writeInt(((byte[]) value).length);
+                out.write((byte[]) value);
+                break;
+            case TAG_STRING:
+                out.writeUTF((String) value);
+                break;
+            case TAG_LIST: {
+                ListTag list = (ListTag) value;
+                out.writeByte(list.elementType);
+                out.writeInt(list.size());
+                for (Object element : list) {
+                    writePayload(out, list.elementType, element);
+                }
+                break;
+            }
+            case TAG_COMPOUND:
+                writeCompound(out, (Map<String, Object>) value);
+                break;
+            case TAG_INT_ARRAY:
+                out.writeInt(((int[]) value).length);
+                for (int i : (int[]) value) {
+                    out.writeInt(i);
+                }
+                break;
+            case TAG_LONG_ARRAY:
+                out.writeInt(((long[]) value).length);
+                for (long l : (long[]) value) {
+                    out.writeLong(l);
+                }
+                break;
+            default:
+                throw new IOException("Unknown tag type: " + type);
+        }
+    }
+
+    private static byte typeOf(Object value) throws IOException {
+        if (value instanceof Byte) return TAG_BYTE;
+        if (value instanceof Short) return TAG_SHORT;
+        if (value instanceof Integer) return TAG_INT;
+        if (value instanceof Long) return TAG_LONG;
+        if (value instanceof Float) return TAG_FLOAT;
+        if (value instanceof Double) return TAG_DOUBLE;
+        if (value instanceof byte[]) return TAG_BYTE_ARRAY;
+        if (value instanceof String) return TAG_STRING;
+        if (value instanceof ListTag) return TAG_LIST;
+        if (value instanceof Map) return TAG_COMPOUND;
+        if (value instanceof int[]) return TAG_INT_ARRAY;
+        if (value instanceof long[]) return TAG_LONG_ARRAY;
+        throw new IOException("Value cannot be written as NBT: " + value);
+    }
+
+    /**
+     * Gets a child compound.
+     *
+     * @return The compound, or null when absent or of another type.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> compound(Map<String, Object> parent, String key) {
+        Object value = parent.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    /**
+     * Gets a child list.
+     *
+     * @return The list, or null when absent or of another type.
+     */
+    static ListTag list(Map<String, Object> parent, String key) {
+        Object value = parent.get(key);
+        return value instanceof ListTag ? (ListTag) value : null;
+    }
+
+    /**
+     * Gets a numeric child as an int, whatever its numeric tag type.
+     *
+     * @return The value, or the fallback when absent.
+     */
+    static int getInt(Map<String, Object> parent, String key, int fallback) {
+        Object value = parent.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    /**
+     * A list tag keeping its element type, so empty lists can be written back as they were read.
+     */
+    static final class ListTag extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+        final byte elementType;
+
+        ListTag(byte elementType) {
+            this.elementType = elementType;
+        }
+
+        ListTag(byte elementType, int capacity) {
+            super(capacity);
+            this.elementType = elementType;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> compounds() {
+            List<Map<String, Object>> compounds = new ArrayList<>(size());
+            for (Object element : this) {
+                if (element instanceof Map) compounds.add((Map<String, Object>) element);
+            }
+            return compounds;
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package me.athish.tachyon;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A running paste started by {@link Schematic#startPaste(org.bukkit.Location, boolean, boolean, UndoHistory, int,
+ * PasteTransform, boolean)}.
+ * The paste can be paused, resumed and cancelled, optionally restoring the sections it already wrote,
+ * and reports how far it got in sections and blocks.
+ */
+public class PasteHandle {
+    private final WorkloadJob job;
+    private final UndoHistory.Entry rollback;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final AtomicInteger totalSections = new AtomicInteger();
+    private final AtomicInteger sectionsDone = new AtomicInteger();
+    private final AtomicLong blocksWritten = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    /**
+     * @param rollback  The blocks overwritten by the paste, restored when it is cancelled, or null to keep them.
+     * @param onWritten Runs once the paste stopped and its written sections are kept, before the future completes,
+     *                  whether every section was written, the paste was cancelled without rollback or it failed,
+     *                  or null.
+     */
+    PasteHandle(WorkloadJob job, UndoHistory.Entry rollback, Runnable onWritten) {
+        this.job = job;
+        this.rollback = rollback;
+        job.getFuture().whenComplete((ignored, e) -> {
+            endNanos = System.nanoTime();
+            if (e instanceof CancellationException && rollback != null) {
+                UndoHistory.restore(rollback).whenComplete((restored, re) -> future.completeExceptionally(e));
+                return;
+            }
+            if (onWritten != null) onWritten.run();
+            if (e == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Gets the future completing once the paste is done.
+     * It completes with a {@link CancellationException} when the paste is cancelled,
+     * after the written sections are restored when rollback was requested.
+     *
+     * @return The future of the paste.
+     */
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /**
+     * Stops writing sections until {@link #resume()}.
+     */
+    public void pause() {
+        job.pause();
+    }
+
+    public void resume() {
+        job.resume();
+    }
+
+    public boolean isPaused() {
+        return job.isPaused();
+    }
+
+    /**
+     * Stops the paste. Sections that were not written yet are skipped,
+     * and the written ones are restored if the paste was started with rollback.
+     *
+     * @return true if the paste was still running.
+     */
+    public boolean cancel() {
+        return job.cancel();
+    }
+
+    public boolean isCancelled() {
+        return job.isCancelled();
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Gets the number of target sections of the paste, known once the paste has been prepared.
+     *
+     * @return The number of sections, or 0 while they are being counted.
+     */
+    public int getTotalSections() {
+        return totalSections.get();
+    }
+
+    public int getSectionsDone() {
+        return sectionsDone.get();
+    }
+
+    public long getBlocksWritten() {
+        return blocksWritten.get();
+    }
+
+    /**
+     * Gets the progress of the paste.
+     *
+     * @return The fraction of sections done, between 0 and 1.
+     */
+    public double getProgress() {
+        int total = totalSections.get();
+        if (total == 0) return future.isDone() ? 1 : 0;
+        return (double) sectionsDone.get() / total;
+    }
+
+    /**
+     * Gets the average number of blocks written per second since the paste started.
+     *
+     * @return The throughput in blocks per second.
+     */
+    public double getBlocksPerSecond() {
+        return perSecond(blocksWritten.get());
+    }
+
+    /**
+     * Gets the average number of sections done per second since the paste started.
+     *
+     * @return The throughput in sections per second.
+     */
+    public double getSectionsPerSecond() {
+        return perSecond(sectionsDone.get());
+    }
+
+    /**
+     * Estimates the time left from the current throughput.
+     *
+     * @return The estimated remaining time in milliseconds, 0 once done, or -1 while nothing was written yet.
+     */
+    public long getEstimatedMillisRemaining() {
+        if (future.isDone()) return 0;
+        double rate = getSectionsPerSecond();
+        if (rate <= 0) return -1;
+        return (long) ((totalSections.get() - sectionsDone.get()) / rate * 1000);
+    }
+
+    private double perSecond(long count) {
+        long elapsed = (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        return elapsed <= 0 ? 0 : count / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    WorkloadJob job() {
+        return job;
+    }
+
+    void setTotalSections(int sections) {
+        totalSections.set(sections);
+    }
+
+    /**
+     * Counts a target section as done, written or skipped.
+     */
+    void sectionDone(int blocks) {
+        blocksWritten.addAndGet(blocks);
+        sectionsDone.incrementAndGet();
+    }
+
+    /**
+     * Counts blocks written to a section already counted as done.
+     */
+    void blocksWritten(int blocks) {
+        blocksWritten.addAndGet(blocks);
+    }
+
+}
@@ -0,0 +1,22 @@
+package me.athish.tachyon;
+
+/**
+ * The order in which the sections of a paste are written, computed once while the paste is prepared.
+ */
+public enum PasteOrder {
+    /**
+     * Chunk column by chunk column, bottom to top within a column, so each chunk is only visited once.
+     */
+    CHUNK_COLUMNS,
+    /**
+     * Layer by layer from the bottom, so blocks affected by gravity land on what is below them.
+     * Chunks stay loaded from their lowest to their highest section.
+     */
+    BOTTOM_UP,
+    /**
+     * Sections closest to the players in the world when the paste starts first,
+     * so the area around them completes before distant parts.
+     * Without players, the sections are written by chunk column.
+     */
+    NEAREST_TO_VIEWERS
+}
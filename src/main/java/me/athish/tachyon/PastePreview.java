@@ -0,0 +1,95 @@
+package me.athish.tachyon;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A schematic shown to some players with block change packets only, started by
+ * {@link Schematic#preview(org.bukkit.Location, boolean, Collection, PasteTransform)}.
+ * The world is never changed, so a preview costs network bytes instead of tick time,
+ * and the players see the real blocks again after {@link #clear()} or when the chunks are sent to them anew.
+ */
+public class PastePreview {
+    private final World world;
+    private final List<Player> players;
+    private final WorkloadJob job;
+    private final Queue<SectionCommands> sections = new ConcurrentLinkedQueue<>();
+    private boolean cleared;
+
+    PastePreview(World world, Collection<? extends Player> players, WorkloadJob job) {
+        this.world = world;
+        this.players = new ArrayList<>(players);
+        this.job = job;
+    }
+
+    /**
+     * Gets the future completing once every previewed section was sent,
+     * or with a {@link java.util.concurrent.CancellationException} when the preview was cleared before.
+     *
+     * @return The future of the preview.
+     */
+    public CompletableFuture<Void> getFuture() {
+        return job.getFuture();
+    }
+
+    public boolean isDone() {
+        return job.getFuture().isDone();
+    }
+
+    /**
+     * Stops sending the preview and sends the players the real blocks at every position previewed so far,
+     * one section per workload.
+     *
+     * @return A future completing once the real blocks were sent.
+     */
+    public CompletableFuture<Void> clear() {
+        // Sections added from now on are dropped, so every section previewed is restored below
+        synchronized (this) {
+            cleared = true;
+        }
+        job.cancel();
+        return job.getFuture().handle((ignored, e) -> null).thenCompose(ignored -> {
+            WorkloadJob restore = new WorkloadJob(WorkloadJob.PRIORITY_HIGH);
+            List<Runnable> tasks = new ArrayList<>();
+            SectionCommands commands;
+            while ((commands = sections.poll()) != null) {
+                SectionCommands previewed = commands;
+                tasks.add(() -> BlockChanger.restorePreview(world, players, previewed));
+            }
+            BlockChanger.runAsynchronously(restore, tasks);
+            return BlockChanger.finishJob(restore);
+        });
+    }
+
+    WorkloadJob job() {
+        return job;
+    }
+
+    /**
+     * Gets whether the preview was cleared, so its remaining sections don't need to be prepared.
+     */
+    synchronized boolean isCleared() {
+        return cleared;
+    }
+
+    /**
+     * Queues the packets of a section prepared off the main thread.
+     */
+    void add(SectionCommands commands) {
+        if (commands.size() == 0 || isCleared()) return;
+        Object[] packets = BlockChanger.previewPackets(world, commands);
+        synchronized (this) {
+            if (cleared) return;
+            sections.add(commands);
+            BlockChanger.previewAsynchronously(job, world, players, packets, commands.size());
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package me.athish.tachyon;
+
+/**
+ * A rotation and mirroring applied to a schematic around its origin block while it is pasted,
+ * leaving the schematic itself untouched.
+ * The blocks are moved while the paste is prepared off the main thread, so a transformed paste
+ * costs the main thread as much as a plain one.
+ */
+public final class PasteTransform {
+    public static final PasteTransform NONE = new PasteTransform(0, false, false);
+
+    private final int rotations;
+    private final boolean mirrorX;
+    private final boolean mirrorY;
+
+    private PasteTransform(int rotations, boolean mirrorX, boolean mirrorY) {
+        this.rotations = rotations;
+        this.mirrorX = mirrorX;
+        this.mirrorY = mirrorY;
+    }
+
+    /**
+     * Creates a transform rotating first, then mirroring.
+     *
+     * @param rotations The number of 90 degree clockwise rotations, negative values rotate counterclockwise.
+     * @param mirrorX   Whether to mirror the x axis.
+     * @param mirrorY   Whether to mirror the y axis.
+     * @return The transform.
+     */
+    public static PasteTransform of(int rotations, boolean mirrorX, boolean mirrorY) {
+        return new PasteTransform(((rotations % 4) + 4) % 4, mirrorX, mirrorY);
+    }
+
+    public boolean isIdentity() {
+        return rotations == 0 && !mirrorX && !mirrorY;
+    }
+
+    /**
+     * Gets the transformed x coordinate of a position relative to the origin.
+     */
+    int x(int x, int z) {
+        int rotated;
+        switch (rotations) {
+            case 1:
+                rotated = -z;
+                break;
+            case 2:
+                rotated = -x;
+                break;
+            case 3:
+                rotated = z;
+                break;
+            default:
+                rotated = x;
+        }
+        return mirrorX ? -rotated : rotated;
+    }
+
+    /**
+     * Gets the transformed y coordinate of a position relative to the origin.
+     */
+    int y(int y) {
+        return mirrorY ? -y : y;
+    }
+
+    /**
+     * Gets the transformed z coordinate of a position relative to the origin.
+     */
+    int z(int x, int z) {
+        switch (rotations) {
+            case 1:
+                return x;
+            case 2:
+                return -z;
+            case 3:
+                return -x;
+            default:
+                return z;
+        }
+    }
+
+    /**
+     * Applies the transform to an entity in place.
+     */
+    void apply(SerializableEntity entity) {
+        entity.rotate(rotations);
+        if (mirrorX) entity.flipHorizontally();
+        if (mirrorY) entity.flipVertically();
+    }
+
+}
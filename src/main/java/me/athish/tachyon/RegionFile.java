@@ -0,0 +1,179 @@
+package me.athish.tachyon;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes Anvil region files (.mca), each holding 32x32 chunks.
+ * The file starts with a table of chunk locations in 4 KiB sectors, followed by a table of timestamps,
+ * then the chunks, each prefixed by its length and compression type.
+ */
+final class RegionFile implements AutoCloseable {
+    static final int CHUNKS = 1024;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int EXTERNAL_FLAG = 128;
+
+    private final RandomAccessFile file;
+    private final int[] locations = new int[CHUNKS];
+    private final int[] timestamps = new int[CHUNKS];
+
+    RegionFile(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        if (this.file.length() < SECTOR_SIZE * 2) return;
+        for (int i = 0; i < CHUNKS; i++) {
+            locations[i] = this.file.readInt();
+        }
+        for (int i = 0; i < CHUNKS; i++) {
+            timestamps[i] = this.file.readInt();
+        }
+    }
+
+    /**
+     * Gets the index of a chunk inside its region file.
+     */
+    static int index(int chunkX, int chunkZ) {
+        return (chunkX & 31) | (chunkZ & 31) << 5;
+    }
+
+    static File file(File regionFolder, int regionX, int regionZ) {
+        return new File(regionFolder, "r." + regionX + "." + regionZ + ".mca");
+    }
+
+    boolean hasChunk(int index) {
+        return locations[index] != 0;
+    }
+
+    int timestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Reads the stored bytes of a chunk without decompressing them: its compression type followed by its data.
+     *
+     * @param index The index of the chunk.
+     * @return The stored bytes, or null if the chunk was never generated.
+     * @throws IOException If the chunk cannot be read.
+     */
+    byte[] readRaw(int index) throws IOException {
+        int location = locations[index];
+        if (location == 0) return null;
+        file.seek((long) (location >>> 8) * SECTOR_SIZE);
+        int length = file.readInt();
+        if (length <= 0 || length > (location & 0xFF) * SECTOR_SIZE) {
+            throw new IOException("Invalid length " + length + " for chunk " + index);
+        }
+        byte[] raw = new byte[length];
+        file.readFully(raw);
+        return raw;
+    }
+
+    /**
+     * Reads and decompresses a chunk.
+     *
+     * @param index The index of the chunk.
+     * @return The chunk compound, or null if the chunk was never generated.
+     * @throws IOException If the chunk cannot be read or uses an unsupported compression.
+     */
+    Map<String, Object> readChunk(int index) throws IOException {
+        byte[] raw = readRaw(index);
+        return raw == null ? null : decompress(raw);
+    }
+
+    static Map<String, Object> decompress(byte[] raw) throws IOException {
+        int compression = raw[0];
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            throw new IOException("Chunks stored in external .mcc files are not supported");
+        }
+        InputStream in = new ByteArrayInputStream(raw, 1, raw.length - 1);
+        switch (compression) {
+            case COMPRESSION_GZIP:
+                in = new GZIPInputStream(in);
+                break;
+            case COMPRESSION_ZLIB:
+                in = new InflaterInputStream(in);
+                break;
+            case COMPRESSION_NONE:
+                break;
+            default:
+                throw new IOException("Unsupported chunk compression: " + compression);
+        }
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            return Nbt.read(data);
+        }
+    }
+
+    /**
+     * Serializes and zlib compresses a chunk into its stored form.
+     *
+     * @param chunk The chunk compound.
+     * @return The compression type followed by the compressed data.
+     * @throws IOException If the chunk cannot be serialized.
+     */
+    static byte[] compress(Map<String, Object> chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SECTOR_SIZE * 4);
+        bytes.write(COMPRESSION_ZLIB);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            Nbt.write(out, chunk);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a region file from the stored bytes of its chunks, replacing the file atomically.
+     *
+     * @param target     The region file to write.
+     * @param chunks     The stored bytes of every chunk by index, null for absent chunks.
+     * @param timestamps The modification timestamp of every chunk by index.
+     * @throws IOException If the file cannot be written or a chunk exceeds the 1 MiB limit of a region file.
+     */
+    static void write(File target, byte[][] chunks, int[] timestamps) throws IOException {
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            int[] locations = new int[CHUNKS];
+            int sector = 2;
+            out.seek((long) sector * SECTOR_SIZE);
+            for (int i = 0; i < CHUNKS; i++) {
+                byte[] raw = chunks[i];
+                if (raw == null) continue;
+                int sectors = (raw.length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                if (sectors > 0xFF) throw new IOException("Chunk " + i + " is too large for a region file");
+                out.writeInt(raw.length);
+                out.write(raw);
+                out.write(new byte[sectors * SECTOR_SIZE - raw.length - 4]);
+                locations[i] = sector << 8 | sectors;
+                sector += sectors;
+            }
+            out.seek(0);
+            for (int location : locations) {
+                out.writeInt(location);
+            }
+            for (int timestamp : timestamps) {
+                out.writeInt(timestamp);
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+}
@@ -0,0 +1,142 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+import org.bukkit.util.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Creates schematics straight from the region files (.mca) of a world folder, without a running server.
+ * Only the chunks overlapping the copied area are decompressed, region files are read in parallel and
+ * the chunks of a region file are decoded in parallel.
+ * Blocks are resolved by material through the {@link Material} enum on the classpath,
+ * so it has to match the version the world was saved with, see {@link ChunkFormat}:
+ * a 1.8.8 API reads worlds saved before 1.13, a 1.13+ API reads worlds of its version or older ones
+ * saved after the flattening. Block properties and, before 1.13, data values are not kept.
+ */
+public final class RegionReader {
+
+    private RegionReader() {}
+
+    /**
+     * Copies the blocks between two positions from the region files of a world.
+     * Chunks and sections that were never generated are copied as air, entities are not copied.
+     *
+     * @param worldFolder The world folder, holding the "region" folder.
+     * @param start       The starting position of the area to copy.
+     * @param end         The ending position of the area to copy.
+     * @param origin      The origin position for the schematic.
+     * @return The created Schematic.
+     * @throws IOException If a region file cannot be read, or holds chunks or blocks the {@link Material} enum
+     *                     on the classpath can't resolve.
+     */
+    public static Schematic read(File worldFolder, Vector start, Vector end, Vector origin) throws IOException {
+        String worldName = worldFolder.getName();
+        Schematic schematic = new Schematic(
+                new SerializableLocation(worldName, start.getBlockX(), start.getBlockY(), start.getBlockZ(), 0, 0),
+                new SerializableLocation(worldName, end.getBlockX(), end.getBlockY(), end.getBlockZ(), 0, 0),
+                new SerializableLocation(worldName, origin.getX(), origin.getY(), origin.getZ(), 0, 0));
+        int minX = Math.min(start.getBlockX(), end.getBlockX());
+        int minY = Math.min(start.getBlockY(), end.getBlockY());
+        int minZ = Math.min(start.getBlockZ(), end.getBlockZ());
+        int maxX = Math.max(start.getBlockX(), end.getBlockX());
+        int maxY = Math.max(start.getBlockY(), end.getBlockY());
+        int maxZ = Math.max(start.getBlockZ(), end.getBlockZ());
+
+        File regionFolder = new File(worldFolder, "region");
+        List<int[]> regions = new ArrayList<>();
+        for (int regionX = minX >> 9; regionX <= maxX >> 9; regionX++) {
+            for (int regionZ = minZ >> 9; regionZ <= maxZ >> 9; regionZ++) {
+                regions.add(new int[]{regionX, regionZ});
+            }
+        }
+        try {
+            regions.parallelStream().forEach(region -> readRegion(regionFolder, region[0], region[1],
+                    schematic.blocks(), minX, minY, minZ, maxX, maxY, maxZ));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return schematic;
+    }
+
+    private static void readRegion(File regionFolder, int regionX, int regionZ, BlockStore store,
+                                   int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        int fromChunkX = Math.max(minX >> 4, regionX << 5);
+        int fromChunkZ = Math.max(minZ >> 4, regionZ << 5);
+        int sizeX = Math.min(maxX >> 4, (regionX << 5) + 31) - fromChunkX + 1;
+        int sizeZ = Math.min(maxZ >> 4, (regionZ << 5) + 31) - fromChunkZ + 1;
+        byte[][] chunks = new byte[sizeX * sizeZ][];
+
+        File file = RegionFile.file(regionFolder, regionX, regionZ);
+        if (file.isFile()) {
+            // Reading stays sequential, decompressing and decoding is spread over the chunks.
+            try (RegionFile region = new RegionFile(file)) {
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = region.readRaw(RegionFile.index(fromChunkX + i % sizeX, fromChunkZ + i / sizeX));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        IntStream.range(0, chunks.length).parallel().forEach(i -> {
+            try {
+                Map<String, Object> chunk = chunks[i] == null ? null : RegionFile.decompress(chunks[i]);
+                chunks[i] = null;
+                readChunk(chunk, fromChunkX + i % sizeX, fromChunkZ + i / sizeX, store,
+                        minX, minY, minZ, maxX, maxY, maxZ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void readChunk(Map<String, Object> chunk, int chunkX, int chunkZ, BlockStore store,
+                                  int minX, int minY, int minZ, int maxX, int maxY, int maxZ) throws IOException {
+        int dataVersion = chunk == null ? 0 : ChunkFormat.dataVersion(chunk);
+        if (chunk != null) ChunkFormat.checkVersion(dataVersion);
+        Map<Integer, Map<String, Object>> sections = chunk == null ? null
+                : ChunkFormat.sections(ChunkFormat.level(chunk, dataVersion), dataVersion);
+        int fromX = Math.max(minX, chunkX << 4) & 15;
+        int fromZ = Math.max(minZ, chunkZ << 4) & 15;
+        int toX = Math.min(maxX, (chunkX << 4) + 15) & 15;
+        int toZ = Math.min(maxZ, (chunkZ << 4) + 15) & 15;
+        char[] ids = new char[0];
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+            int fromY = Math.max(minY, sectionY << 4) & 15;
+            int toY = Math.min(maxY, (sectionY << 4) + 15) & 15;
+            Map<String, Object> tag = sections == null ? null : sections.get(sectionY);
+            ChunkFormat.Section section = tag == null ? null : ChunkFormat.decode(tag, dataVersion);
+            if (section == null || section.palette != null && section.palette.size() == 1) {
+                Material material = section == null ? Material.AIR : ChunkFormat.material(section, 0);
+                store.fill(chunkX, sectionY, chunkZ, fromX, fromY, fromZ, toX, toY, toZ, material);
+                continue;
+            }
+
+            if (section.palette != null) {
+                if (ids.length < section.palette.size()) ids = new char[section.palette.size()];
+                for (int i = 0; i < section.palette.size(); i++) {
+                    ids[i] = store.paletteId(ChunkFormat.material(section, i));
+                }
+            }
+            int[] states = section.states;
+            char[] target = store.section(chunkX, sectionY, chunkZ, true);
+            for (int y = fromY; y <= toY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int index = y << 8 | z << 4;
+                    for (int x = fromX; x <= toX; x++) {
+                        target[index | x] = section.palette != null ? ids[states[index | x]]
+                                : store.paletteId(ChunkFormat.material(section, states[index | x]));
+                    }
+                }
+            }
+        }
+    }
+
+}
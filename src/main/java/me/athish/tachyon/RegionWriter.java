@@ -0,0 +1,235 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+import org.bukkit.util.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pastes schematics straight into the region files (.mca) of a world folder while the server is offline.
+ * Only the chunks touched by the schematic are decompressed and rewritten, every other chunk is copied as stored.
+ * Region files are processed in parallel and the touched chunks of a region file are merged and compressed in parallel.
+ * <p>
+ * Blocks are merged into the existing sections and the tile entities at written positions are removed.
+ * Heightmaps are dropped and lighting is flagged as missing, so the server recomputes both when the chunks
+ * are loaded. Servers before 1.13 don't recompute the height map of a loaded chunk, so it is updated
+ * for the written columns instead, assuming every block that is not air stops sky light.
+ * Chunks that were never generated are skipped, as the server would generate them over anything written there.
+ * Blocks are written by material through the {@link Material} enum on the classpath,
+ * so it has to match the version the world was saved with, see {@link ChunkFormat}.
+ * Blocks are written in their default state, with a zero data value before 1.13.
+ */
+public final class RegionWriter {
+
+    private RegionWriter() {}
+
+    /**
+     * Pastes a schematic into the region files of a world.
+     *
+     * @param schematic   The schematic to paste.
+     * @param worldFolder The world folder, holding the "region" folder.
+     * @param position    The position to paste the schematic origin at.
+     * @param ignoreAir   Whether to ignore air blocks when pasting.
+     * @return The number of chunks written.
+     * @throws IOException If a region file cannot be read or written, or holds chunks the {@link Material} enum
+     *                     on the classpath can't resolve. Chunks already written to other region files are kept.
+     */
+    public static int write(Schematic schematic, File worldFolder, Vector position, boolean ignoreAir)
+            throws IOException {
+        BlockStore store = schematic.blocks();
+        int offsetX = position.getBlockX() - schematic.originX();
+        int offsetY = position.getBlockY() - schematic.originY();
+        int offsetZ = position.getBlockZ() - schematic.originZ();
+
+        // Group the chunks touched by the pasted sections by region file.
+        Map<Long, BitSet> regions = new HashMap<>();
+        int fromSectionY = Integer.MAX_VALUE;
+        int toSectionY = Integer.MIN_VALUE;
+        for (long key : store.shiftedSectionKeys(offsetX, offsetY, offsetZ)) {
+            int chunkX = BlockStore.sectionX(key);
+            int chunkZ = BlockStore.sectionZ(key);
+            fromSectionY = Math.min(fromSectionY, BlockStore.sectionY(key));
+            toSectionY = Math.max(toSectionY, BlockStore.sectionY(key));
+            regions.computeIfAbsent(regionKey(chunkX >> 5, chunkZ >> 5), k -> new BitSet(RegionFile.CHUNKS))
+                    .set(RegionFile.index(chunkX, chunkZ));
+        }
+        if (regions.isEmpty()) return 0;
+
+        File regionFolder = new File(worldFolder, "region");
+        int minSectionY = fromSectionY;
+        int maxSectionY = toSectionY;
+        AtomicInteger written = new AtomicInteger();
+        try {
+            regions.entrySet().parallelStream().forEach(entry -> {
+                int regionX = (int) (entry.getKey() >> 32);
+                int regionZ = (int) (long) entry.getKey();
+                File file = RegionFile.file(regionFolder, regionX, regionZ);
+                if (!file.isFile()) return;
+                try {
+                    written.addAndGet(writeRegion(file, regionX, regionZ, entry.getValue(), store, minSectionY,
+                            maxSectionY, offsetX, offsetY, offsetZ, ignoreAir));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return written.get();
+    }
+
+    private static int writeRegion(File file, int regionX, int regionZ, BitSet touched, BlockStore store,
+                                   int fromSectionY, int toSectionY, int offsetX, int offsetY, int offsetZ,
+                                   boolean ignoreAir) throws IOException {
+        byte[][] chunks = new byte[RegionFile.CHUNKS][];
+        int[] timestamps = new int[RegionFile.CHUNKS];
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                chunks[i] = region.readRaw(i);
+                timestamps[i] = region.timestamp(i);
+            }
+        }
+
+        int now = (int) (System.currentTimeMillis() / 1000);
+        AtomicInteger written = new AtomicInteger();
+        try {
+            touched.stream().parallel().filter(i -> chunks[i] != null).forEach(i -> {
+                try {
+                    Map<String, Object> chunk = RegionFile.decompress(chunks[i]);
+                    if (!merge(chunk, (regionX << 5) + (i & 31), (regionZ << 5) + (i >> 5), store,
+                            fromSectionY, toSectionY, offsetX, offsetY, offsetZ, ignoreAir)) return;
+                    chunks[i] = RegionFile.compress(chunk);
+                    timestamps[i] = now;
+                    written.incrementAndGet();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (written.get() > 0) RegionFile.write(file, chunks, timestamps);
+        return written.get();
+    }
+
+    /**
+     * Writes the blocks of the schematic falling inside a chunk into its sections.
+     *
+     * @return Whether any block was written.
+     */
+    private static boolean merge(Map<String, Object> chunk, int chunkX, int chunkZ, BlockStore store,
+                                 int fromSectionY, int toSectionY, int offsetX, int offsetY, int offsetZ,
+                                 boolean ignoreAir) throws IOException {
+        int dataVersion = ChunkFormat.dataVersion(chunk);
+        ChunkFormat.checkVersion(dataVersion);
+        Map<String, Object> level = ChunkFormat.level(chunk, dataVersion);
+        Map<Integer, Map<String, Object>> sections = ChunkFormat.sections(level, dataVersion);
+        Material[] blocks = new Material[BlockStore.SECTION_VOLUME];
+        // Written positions by section y, in y, z, x order
+        Map<Integer, BitSet> written = new HashMap<>();
+        boolean changed = false;
+        for (int sectionY = fromSectionY; sectionY <= toSectionY; sectionY++) {
+            Map<String, Object> tag = sections.get(sectionY);
+            // 1.18+ chunks list every section of the world height, older ones span 0-255
+            if (tag == null && (dataVersion >= ChunkFormat.NO_LEVEL || sectionY < 0 || sectionY > 15)) continue;
+            Arrays.fill(blocks, null);
+            if (!store.shiftedSection(chunkX, sectionY, chunkZ, offsetX, offsetY, offsetZ, blocks)) continue;
+
+            ChunkFormat.Section section = null;
+            Map<Material, Integer> cache = new HashMap<>();
+            for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                Material material = blocks[i];
+                if (material == null || ignoreAir && material == Material.AIR) continue;
+                if (section == null) section = ChunkFormat.decodeOrCreate(tag, sectionY, dataVersion);
+                section.states[i] = ChunkFormat.state(section, material, cache);
+                written.computeIfAbsent(sectionY, y -> new BitSet(BlockStore.SECTION_VOLUME)).set(i);
+            }
+
+            if (section == null) continue;
+            ChunkFormat.encode(section, dataVersion);
+            if (tag == null) ChunkFormat.addSection(level, dataVersion, section.tag);
+            changed = true;
+        }
+
+        if (changed) {
+            removeTileEntities(level, dataVersion, chunkX, chunkZ, written);
+            level.remove("Heightmaps");
+            if (dataVersion < ChunkFormat.FLATTENING) updateHeightMap(level, dataVersion, written);
+            if (dataVersion >= ChunkFormat.LIGHT_ENGINE) {
+                level.put("isLightOn", (byte) 0);
+            } else {
+                level.put("LightPopulated", (byte) 0);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the tile entities of the written positions, which would otherwise be left
+     * without their block, like the inventory of a chest replaced by stone.
+     */
+    private static void removeTileEntities(Map<String, Object> level, int dataVersion, int chunkX, int chunkZ,
+                                           Map<Integer, BitSet> written) {
+        Nbt.ListTag tileEntities = Nbt.list(level, dataVersion >= ChunkFormat.NO_LEVEL ? "block_entities"
+                : "TileEntities");
+        if (tileEntities == null) return;
+        tileEntities.removeIf(element -> {
+            if (!(element instanceof Map)) return false;
+            @SuppressWarnings("unchecked")
+            Map<String, Object> tileEntity = (Map<String, Object>) element;
+            int x = Nbt.getInt(tileEntity, "x", Integer.MIN_VALUE);
+            int y = Nbt.getInt(tileEntity, "y", Integer.MIN_VALUE);
+            int z = Nbt.getInt(tileEntity, "z", Integer.MIN_VALUE);
+            if (x >> 4 != chunkX || z >> 4 != chunkZ) return false;
+            BitSet changed = written.get(y >> 4);
+            return changed != null && changed.get(BlockStore.index(x, y, z));
+        });
+    }
+
+    /**
+     * Updates the height map of the written columns of a chunk saved before 1.13: the height is above the
+     * highest block that was written and is not air, or that is not air and was below the former height.
+     * Blocks whose light opacity is unknown are assumed to stop sky light.
+     */
+    private static void updateHeightMap(Map<String, Object> level, int dataVersion, Map<Integer, BitSet> written) {
+        Object value = level.get("HeightMap");
+        if (!(value instanceof int[]) || ((int[]) value).length != 256) return;
+        int[] heights = (int[]) value;
+        boolean[] columns = new boolean[256];
+        for (BitSet changed : written.values()) {
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                columns[i & 255] = true;
+            }
+        }
+        Map<Integer, Map<String, Object>> tags = ChunkFormat.sections(level, dataVersion);
+        ChunkFormat.Section[] sections = new ChunkFormat.Section[16];
+        for (Map.Entry<Integer, Map<String, Object>> entry : tags.entrySet()) {
+            if (entry.getKey() >= 0 && entry.getKey() < 16)
+                sections[entry.getKey()] = ChunkFormat.decode(entry.getValue(), dataVersion);
+        }
+        for (int column = 0; column < 256; column++) {
+            if (!columns[column]) continue;
+            int height = 0;
+            for (int y = 255; y >= 0 && height == 0; y--) {
+                ChunkFormat.Section section = sections[y >> 4];
+                int index = (y & 15) << 8 | column;
+                if (section == null || section.states[index] >> 4 == 0) continue;
+                BitSet changed = written.get(y >> 4);
+                if (y < heights[column] || changed != null && changed.get(index)) height = y + 1;
+            }
+            heights[column] = height;
+        }
+    }
+
+    private static long regionKey(int regionX, int regionZ) {
+        return (long) regionX << 32 | (regionZ & 0xFFFFFFFFL);
+    }
+
+}
@@ -4,43 +4,84 @@ import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.inventory.ItemStack;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.util.Vector;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Represents a schematic that can be copied, saved, loaded, and pasted.
  * The schematic stores blocks and their locations relative to an origin.
+ * Blocks are kept in a section sparse, palette compressed {@link BlockStore}.
  */
 @SuppressWarnings("all")
 public class Schematic {
     // Set your custom schematic file extension here.
     private static final String FILE_EXTENSION = ".tachyon";
+    /**
+     * Sections a stream paste may have queued ahead of the main thread
+     */
+    private static final int STREAM_QUEUED_SECTIONS = 256;
+    /**
+     * Target sections a stream paste keeps pending while their stored sections are read
+     */
+    private static final int STREAM_PENDING_SECTIONS = 2048;
+    /**
+     * Sections a stream paste gathers before queueing them
+     */
+    private static final int STREAM_READY_SECTIONS = 64;
+    private static final Comparator<Long> CHUNK_COLUMNS = Comparator.<Long>comparingInt(BlockStore::sectionX)
+            .thenComparingInt(BlockStore::sectionZ)
+            .thenComparingInt(BlockStore::sectionY);
 
-    private Map<SerializableLocation, Material> blocks = new ConcurrentHashMap<>();
+    private BlockStore blocks = new BlockStore();
+    private List<SerializableEntity> entities = new ArrayList<>();
     private SerializableLocation origin;
     private SerializableLocation min;
     private SerializableLocation max;
 
     /**
-     * Creates a new Schematic by copying blocks between two locations.
+     * Creates a new, empty Schematic for the area between two locations.
      *
      * @param start  The starting location of the area to copy.
      * @param end    The ending location of the area to copy.
      * @param origin The origin location for the schematic.
      */
     private Schematic(Location start, Location end, Location origin) {
-        this.min = new SerializableLocation(start);
-        this.max = new SerializableLocation(end);
-        copyBlocks(start, end, origin);
+        this(new SerializableLocation(start), new SerializableLocation(end), new SerializableLocation(origin));
+    }
+
+    /**
+     * Creates a new, empty Schematic for the area between two locations, without needing a loaded world.
+     *
+     * @param start  The starting location of the area.
+     * @param end    The ending location of the area.
+     * @param origin The origin location for the schematic.
+     */
+    Schematic(SerializableLocation start, SerializableLocation end, SerializableLocation origin) {
+        this.min = start;
+        this.max = end;
+        this.origin = origin;
     }
 
     /**
@@ -55,14 +96,14 @@ public class Schematic {
     }
 
     /**
-     * Copies blocks between two locations and stores them in the schematic.
+     * Copies the blocks between two locations into the schematic.
      *
-     * @param start  The starting location of the area to copy.
-     * @param end    The ending location of the area to copy.
-     * @param origin The origin location for the schematic.
+     * @param start The starting location of the area to copy.
+     * @param end   The ending location of the area to copy.
+     * @param job   The job spreading the capture over several ticks, or null to read everything right away.
+     * @return A future completing once every block was stored.
      */
-    private void copyBlocks(Location start, Location end, Location origin) {
-        World world = start.getWorld();
+    private CompletableFuture<Void> copyBlocks(Location start, Location end, CopyJob job) {
         int minX = Math.min(start.getBlockX(), end.getBlockX());
         int minY = Math.min(start.getBlockY(), end.getBlockY());
         int minZ = Math.min(start.getBlockZ(), end.getBlockZ());
@@ -70,64 +111,490 @@ public class Schematic {
         int maxY = Math.max(start.getBlockY(), end.getBlockY());
         int maxZ = Math.max(start.getBlockZ(), end.getBlockZ());
 
-        this.origin = new SerializableLocation(origin);
+        if (job != null) {
+            return ChunkCapture.captureAsync(start.getWorld(), blocks, job, minX, minY, minZ, maxX, maxY, maxZ);
+        }
+        ChunkCapture.capture(start.getWorld(), blocks, minX, minY, minZ, maxX, maxY, maxZ);
+        return CompletableFuture.completedFuture(null);
+    }
 
-        // Create a list of all coordinates within the specified range
-        List<int[]> coordinates = new ArrayList<>();
-        for (int x = minX; x <= maxX; x++) {
-            for (int y = minY; y <= maxY; y++) {
-                for (int z = minZ; z <= maxZ; z++) {
-                    coordinates.add(new int[]{x, y, z});
-                }
+    /**
+     * Copies the entities between two locations and stores them relative to the origin block.
+     * Entities can only be read on the main thread, so the copy is handed over to it when called asynchronously.
+     *
+     * @param start The starting location of the area to copy.
+     * @param end   The ending location of the area to copy.
+     */
+    private void copyEntities(Location start, Location end) {
+        if (!Bukkit.isPrimaryThread()) {
+            try {
+                Bukkit.getScheduler().callSyncMethod(JavaPlugin.getProvidingPlugin(Schematic.class), () -> {
+                    copyEntities(start, end);
+                    return null;
+                }).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
             }
+            return;
         }
 
-        // Use parallelStream to process the coordinates in parallel
-        coordinates.parallelStream().forEach(coord -> {
-            Location loc = new Location(world, coord[0], coord[1], coord[2]);
-            blocks.put(new SerializableLocation(loc), world.getBlockAt(loc).getType());
-        });
+        World world = start.getWorld();
+        int minX = Math.min(start.getBlockX(), end.getBlockX());
+        int minY = Math.min(start.getBlockY(), end.getBlockY());
+        int minZ = Math.min(start.getBlockZ(), end.getBlockZ());
+        int maxX = Math.max(start.getBlockX(), end.getBlockX());
+        int maxY = Math.max(start.getBlockY(), end.getBlockY());
+        int maxZ = Math.max(start.getBlockZ(), end.getBlockZ());
+
+        // Only look at the loaded chunks overlapping the cuboid instead of every entity in the world
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) continue;
+                for (Entity entity : world.getChunkAt(chunkX, chunkZ).getEntities()) {
+                    Location loc = entity.getLocation();
+                    if (loc.getX() < minX || loc.getX() >= maxX + 1 || loc.getY() < minY || loc.getY() >= maxY + 1
+                            || loc.getZ() < minZ || loc.getZ() >= maxZ + 1 || !SerializableEntity.isCopyable(entity)) {
+                        continue;
+                    }
+                    entities.add(new SerializableEntity(entity, originX(), originY(), originZ()));
+                }
+            }
+        }
     }
 
     /**
      * Pastes the schematic at a given location synchronously.
+     * Blocks are written section by section, so chunk and section lookups happen once per section.
+     * Sections fully covered by the schematic are replaced as a whole when the server supports it.
+     * Clients are sent the changed blocks once the paste is done instead of once per block.
      *
      * @param pasteLocation The location to paste the schematic.
      * @param ignoreAir     Whether to ignore air blocks when pasting.
      */
     public void pasteSync(Location pasteLocation, boolean ignoreAir) {
-        Location originLoc = origin.toLocation();
-        for (Map.Entry<SerializableLocation, Material> entry : blocks.entrySet()) {
-            if (ignoreAir && entry.getValue() == Material.AIR) continue;
-
-            Location loc = entry.getKey().toLocation();
-            loc.setWorld(pasteLocation.getWorld());
-            loc.subtract(originLoc);
-            loc.add(pasteLocation);
-            BlockChanger.setSectionBlock(loc, entry.getValue());
+        pasteSync(pasteLocation, ignoreAir, false);
+    }
+
+    /**
+     * Pastes the schematic at a given location synchronously, optionally only writing the blocks that differ
+     * from the world. Sections are compared with the world by reading their palette, on 1.13+,
+     * so re-pasting a slightly damaged build costs in proportion to the damage rather than its size.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     */
+    public void pasteSync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged) {
+        pasteSync(pasteLocation, ignoreAir, onlyChanged, null);
+    }
+
+    /**
+     * Pastes the schematic at a given location synchronously, recording the overwritten blocks
+     * so the paste can be undone with {@link UndoHistory#undo()}.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     * @param history       The history receiving the overwritten blocks, or null to not record them.
+     */
+    public void pasteSync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged, UndoHistory history) {
+        World world = pasteLocation.getWorld();
+        int offsetX = pasteLocation.getBlockX() - originX();
+        int offsetY = pasteLocation.getBlockY() - originY();
+        int offsetZ = pasteLocation.getBlockZ() - originZ();
+        UndoHistory.Entry undo = history == null ? null : history.begin(world);
+        Material[] blocks = new Material[BlockStore.SECTION_VOLUME];
+        for (long key : sortedSectionKeys(this.blocks, offsetX, offsetY, offsetZ)) {
+            Arrays.fill(blocks, null);
+            if (!gatherSection(this.blocks, key, offsetX, offsetY, offsetZ, ignoreAir, blocks)) continue;
+            writeSection(world, key, blocks, onlyChanged ? null : fullSection(world, key, blocks), null,
+                    onlyChanged, undo);
+        }
+        BlockChanger.sendSectionChanges();
+        if (history != null) history.push(undo);
+
+        for (SerializableEntity entity : entities) {
+            entity.spawn(pasteLocation.getWorld(), pasteLocation.getBlockX(), pasteLocation.getBlockY(),
+                    pasteLocation.getBlockZ());
         }
     }
 
     /**
      * Pastes the schematic at a given location asynchronously.
+     * Sections are gathered off the main thread, then each section is written in one workload.
+     * Sections fully covered by the schematic are built off the main thread too, so the workload only swaps them in.
+     * Clients are sent the blocks changed during a tick at the end of it instead of once per block.
+     * Unloaded chunks are loaded ahead of their sections, asynchronously on Paper, and kept loaded until written.
+     * Copied entities are spawned once the last block has been placed, sharing the per tick budget of the blocks.
      *
      * @param pasteLocation The location to paste the schematic.
      * @param ignoreAir     Whether to ignore air blocks when pasting.
      * @return A CompletableFuture that completes when the paste operation is done.
      */
     public CompletableFuture<Void> pasteAsync(Location pasteLocation, boolean ignoreAir) {
-        return CompletableFuture.runAsync(() -> {
-            Location originLoc = origin.toLocation();
-            for (Map.Entry<SerializableLocation, Material> entry : blocks.entrySet()) {
-                if (ignoreAir && entry.getValue() == Material.AIR) continue;
-
-                Location loc = entry.getKey().toLocation();
-                loc.setWorld(pasteLocation.getWorld());
-                loc.subtract(originLoc);
-                loc.add(pasteLocation);
-                BlockChanger.setSectionBlockAsynchronously(loc, new ItemStack(entry.getValue()), false);
+        return pasteAsync(pasteLocation, ignoreAir, false);
+    }
+
+    /**
+     * Pastes the schematic at a given location asynchronously, optionally only writing the blocks that differ
+     * from the world. Sections are compared with the world by reading their palette on the main thread
+     * right before being written, on 1.13+.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     * @return A CompletableFuture that completes when the paste operation is done.
+     */
+    public CompletableFuture<Void> pasteAsync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged) {
+        return pasteAsync(pasteLocation, ignoreAir, onlyChanged, null);
+    }
+
+    /**
+     * Pastes the schematic at a given location asynchronously, recording the overwritten blocks
+     * so the paste can be undone with {@link UndoHistory#undo()}.
+     * Blocks are recorded on the main thread right before their section is written,
+     * the paste is added to the history once it stops, even when it failed partway,
+     * so the sections it already wrote can still be undone.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     * @param history       The history receiving the overwritten blocks, or null to not record them.
+     * @return A CompletableFuture that completes when the paste operation is done.
+     */
+    public CompletableFuture<Void> pasteAsync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged,
+                                              UndoHistory history) {
+        return pasteAsync(pasteLocation, ignoreAir, onlyChanged, history, WorkloadJob.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Pastes the schematic at a given location asynchronously with a given priority.
+     * The paste is a single {@link WorkloadJob}, taking turns with the other jobs of the workload queue,
+     * so a small paste with a high priority completes quickly even while a huge one is running.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     * @param history       The history receiving the overwritten blocks, or null to not record them.
+     * @param priority      The priority of the paste, see {@link WorkloadJob#WorkloadJob(int)}.
+     * @return A CompletableFuture that completes when the paste operation is done.
+     */
+    public CompletableFuture<Void> pasteAsync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged,
+                                              UndoHistory history, int priority) {
+        return pasteAsync(pasteLocation, ignoreAir, onlyChanged, history, priority, PasteTransform.NONE);
+    }
+
+    /**
+     * Pastes the schematic at a given location asynchronously, rotated and mirrored around its origin block
+     * without changing the schematic itself.
+     * Everything but the writes happens off the main thread: the blocks are moved by the transform,
+     * gathered per target section and resolved to the block data written by the workloads,
+     * so the main thread only writes raw section entries.
+     *
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to ignore air blocks when pasting.
+     * @param onlyChanged   Whether to skip the blocks already matching the world.
+     * @param history       The history receiving the overwritten blocks, or null to not record them.
+     * @param priority      The priority of the paste, see {@link WorkloadJob#WorkloadJob(int)}.
+     * @param transform     The rotation and mirroring applied to the pasted blocks and entities.
+     * @return A CompletableFuture that completes when the paste operation is done.
+     */
+    public CompletableFuture<Void> pasteAsync(Location pasteLocation, boolean ignoreAir, boolean onlyChanged,
+                                              UndoHistory history, int priority, PasteTransform transform) {
+        return startPaste(pasteLocation, ignoreAir, onlyChanged, history, priority, transform, false).getFuture();
+    }
+
+    /**
+     * Starts pasting the schematic at a given location asynchronously, like
+     * {@link #pasteAsync(Location, boolean, boolean, UndoHistory, int, PasteTransform)},
+     * returning a handle to pause, resume or cancel the paste and to follow its progress.
+     *
+     * @param pasteLocation    The location to paste the schematic.
+     * @param ignoreAir        Whether to ignore air blocks when pasting.
+     * @param onlyChanged      Whether to skip the blocks already matching the world.
+     * @param history          The history receiving the overwritten blocks, or null to not record them.
+     * @param priority         The priority of the paste, see {@link WorkloadJob#WorkloadJob(int)}.
+     * @param transform        The rotation and mirroring applied to the pasted blocks and entities.
+     * @param rollbackOnCancel Whether cancelling the paste restores the sections it already wrote.
+     * @return The handle of the running paste.
+     */
+    public PasteHandle startPaste(Location pasteLocation, boolean ignoreAir, boolean onlyChanged, UndoHistory history,
+                                  int priority, PasteTransform transform, boolean rollbackOnCancel) {
+        return startPaste(pasteLocation, ignoreAir, onlyChanged, history, priority, transform, rollbackOnCancel,
+                PasteOrder.CHUNK_COLUMNS);
+    }
+
+    /**
+     * Starts pasting the schematic at a given location asynchronously, writing its sections in the given order.
+     * The order is computed once while the paste is prepared, so it costs nothing while the sections are written.
+     *
+     * @param pasteLocation    The location to paste the schematic.
+     * @param ignoreAir        Whether to ignore air blocks when pasting.
+     * @param onlyChanged      Whether to skip the blocks already matching the world.
+     * @param history          The history receiving the overwritten blocks, or null to not record them.
+     * @param priority         The priority of the paste, see {@link WorkloadJob#WorkloadJob(int)}.
+     * @param transform        The rotation and mirroring applied to the pasted blocks and entities.
+     * @param rollbackOnCancel Whether cancelling the paste restores the sections it already wrote.
+     * @param order            The order in which the sections are written.
+     * @return The handle of the running paste.
+     */
+    public PasteHandle startPaste(Location pasteLocation, boolean ignoreAir, boolean onlyChanged, UndoHistory history,
+                                  int priority, PasteTransform transform, boolean rollbackOnCancel,
+                                  PasteOrder order) {
+        World world = pasteLocation.getWorld();
+        // Players are located by the calling thread, when the paste starts
+        List<Vector> viewers = new ArrayList<>();
+        if (order == PasteOrder.NEAREST_TO_VIEWERS) {
+            for (Player player : world.getPlayers()) {
+                viewers.add(player.getLocation().toVector());
+            }
+        }
+        WorkloadJob job = new WorkloadJob(priority);
+        // A rollback without history records into a history of its own,
+        // a paste stopped without rollback keeps what it wrote in the history
+        UndoHistory recorder = history != null ? history
+                : rollbackOnCancel ? new UndoHistory(1, Long.MAX_VALUE) : null;
+        UndoHistory.Entry undo = recorder == null ? null : recorder.begin(world);
+        PasteHandle handle = new PasteHandle(job, rollbackOnCancel ? undo : null,
+                history == null ? null : () -> history.push(undo));
+        CompletableFuture.runAsync(() -> {
+            BlockStore source = transform.isIdentity() ? blocks : transformedBlocks(transform);
+            int offsetX = pasteLocation.getBlockX() - originX();
+            int offsetY = pasteLocation.getBlockY() - originY();
+            int offsetZ = pasteLocation.getBlockZ() - originZ();
+            List<Long> keys = sortedSectionKeys(source, offsetX, offsetY, offsetZ, order, viewers);
+            handle.setTotalSections(keys.size());
+            // Chunks are loaded ahead of their first written section and released after their last section
+            Map<Long, Integer> lastSections = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                lastSections.put(chunkKey(keys.get(i)), i);
+            }
+            Set<Long> loadedChunks = new HashSet<>();
+            for (int i = 0; i < keys.size() && !job.isCancelled(); i++) {
+                long key = keys.get(i);
+                long chunk = chunkKey(key);
+                Material[] blocks = new Material[BlockStore.SECTION_VOLUME];
+                if (gatherSection(source, key, offsetX, offsetY, offsetZ, ignoreAir, blocks)) {
+                    if (loadedChunks.add(chunk)) {
+                        BlockChanger.loadChunkAsynchronously(job, world, BlockStore.sectionX(key),
+                                BlockStore.sectionZ(key));
+                    }
+                    queueSection(handle, world, key, blocks, onlyChanged, undo);
+                } else {
+                    handle.sectionDone(0);
+                }
+                if (lastSections.get(chunk) == i && loadedChunks.contains(chunk)) {
+                    BlockChanger.releaseChunkAsynchronously(job, world, BlockStore.sectionX(key),
+                            BlockStore.sectionZ(key));
+                }
+            }
+
+            if (!entities.isEmpty()) {
+                int x = pasteLocation.getBlockX();
+                int y = pasteLocation.getBlockY();
+                int z = pasteLocation.getBlockZ();
+                List<Runnable> spawns = new ArrayList<>(entities.size());
+                for (SerializableEntity entity : entities) {
+                    SerializableEntity spawned = entity;
+                    if (!transform.isIdentity()) {
+                        spawned = SerializableEntity.deserialize(entity.serialize());
+                        transform.apply(spawned);
+                    }
+                    SerializableEntity copy = spawned;
+                    spawns.add(() -> copy.spawn(world, x, y, z));
+                }
+                // Queued behind the block workloads, so entities only spawn after the last block is placed.
+                BlockChanger.runAsynchronously(job, spawns);
+            }
+        }).whenComplete((ignored, e) -> {
+            if (e == null) {
+                BlockChanger.finishJob(job);
+            } else {
+                job.fail(e);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Queues the writes of a target section in the job of a paste, prepared off the main thread.
+     * When comparing or recording, the world is read by the same workload, right before the section is written.
+     *
+     * @param onlyChanged Whether to skip the blocks already matching the world.
+     * @param undo        Receives the overwritten blocks, or null to not record them.
+     */
+    private static void queueSection(PasteHandle handle, World world, long key, Material[] blocks,
+                                     boolean onlyChanged, UndoHistory.Entry undo) {
+        Object section = onlyChanged ? null : fullSection(world, key, blocks);
+        SectionCommands commands = section != null ? null : SectionCommands.of(BlockStore.sectionX(key),
+                BlockStore.sectionY(key), BlockStore.sectionZ(key), blocks);
+        BlockChanger.runAsynchronously(handle.job(), Collections.singletonList(() -> handle.sectionDone(
+                writeSection(world, key, blocks, section, commands, onlyChanged, undo))));
+    }
+
+    /**
+     * Shows the schematic to some players at a given location without changing the world.
+     *
+     * @param pasteLocation The location the schematic is shown at.
+     * @param ignoreAir     Whether to leave out air blocks.
+     * @param players       The players shown the schematic.
+     * @return The running preview.
+     */
+    public PastePreview preview(Location pasteLocation, boolean ignoreAir, Collection<? extends Player> players) {
+        return preview(pasteLocation, ignoreAir, players, PasteTransform.NONE);
+    }
+
+    /**
+     * Shows the schematic to some players at a given location with block change packets only, so the world is
+     * never changed. Sections are prepared off the main thread and sent nearest to the players first, each player
+     * receiving up to {@link BlockChanger#setPreviewBlocksPerTick(int)} blocks per tick.
+     * Entities are not shown.
+     *
+     * @param pasteLocation The location the schematic is shown at.
+     * @param ignoreAir     Whether to leave out air blocks.
+     * @param players       The players shown the schematic.
+     * @param transform     The rotation and mirroring applied to the shown blocks.
+     * @return The running preview.
+     */
+    public PastePreview preview(Location pasteLocation, boolean ignoreAir, Collection<? extends Player> players,
+                                PasteTransform transform) {
+        World world = pasteLocation.getWorld();
+        // Players are located by the calling thread, when the preview starts
+        List<Vector> viewers = new ArrayList<>();
+        for (Player player : players) {
+            viewers.add(player.getLocation().toVector());
+        }
+        WorkloadJob job = new WorkloadJob();
+        PastePreview preview = new PastePreview(world, players, job);
+        CompletableFuture.runAsync(() -> {
+            BlockStore source = transform.isIdentity() ? blocks : transformedBlocks(transform);
+            int offsetX = pasteLocation.getBlockX() - originX();
+            int offsetY = pasteLocation.getBlockY() - originY();
+            int offsetZ = pasteLocation.getBlockZ() - originZ();
+            List<Long> keys = sortedSectionKeys(source, offsetX, offsetY, offsetZ, PasteOrder.NEAREST_TO_VIEWERS,
+                    viewers);
+            for (int i = 0; i < keys.size() && !preview.isCleared() && !job.isCancelled(); i++) {
+                long key = keys.get(i);
+                Material[] blocks = new Material[BlockStore.SECTION_VOLUME];
+                if (!gatherSection(source, key, offsetX, offsetY, offsetZ, ignoreAir, blocks)) continue;
+                if (preview.isCleared()) break;
+                preview.add(SectionCommands.of(BlockStore.sectionX(key), BlockStore.sectionY(key),
+                        BlockStore.sectionZ(key), blocks));
+            }
+        }).whenComplete((ignored, e) -> {
+            if (e == null) {
+                BlockChanger.finishJob(job);
+            } else {
+                job.fail(e);
             }
         });
+        return preview;
+    }
+
+    private static long chunkKey(long sectionKey) {
+        return BlockStore.sectionKey(BlockStore.sectionX(sectionKey), 0, BlockStore.sectionZ(sectionKey));
+    }
+
+    /**
+     * Gets the target sections of a paste, ordered chunk by chunk so each chunk is only visited once.
+     */
+    private static List<Long> sortedSectionKeys(BlockStore blocks, int offsetX, int offsetY, int offsetZ) {
+        return sortedSectionKeys(blocks, offsetX, offsetY, offsetZ, PasteOrder.CHUNK_COLUMNS,
+                Collections.emptyList());
+    }
+
+    /**
+     * Gets the target sections of a paste in the given order.
+     *
+     * @param viewers The block positions of the players, used by {@link PasteOrder#NEAREST_TO_VIEWERS}.
+     */
+    private static List<Long> sortedSectionKeys(BlockStore blocks, int offsetX, int offsetY, int offsetZ,
+                                                PasteOrder order, List<Vector> viewers) {
+        List<Long> keys = new ArrayList<>(blocks.shiftedSectionKeys(offsetX, offsetY, offsetZ));
+        Comparator<Long> columns = CHUNK_COLUMNS;
+        if (order == PasteOrder.BOTTOM_UP) {
+            keys.sort(Comparator.<Long>comparingInt(BlockStore::sectionY).thenComparing(columns));
+        } else if (order == PasteOrder.NEAREST_TO_VIEWERS && !viewers.isEmpty()) {
+            // Distances are computed once per section rather than on every comparison
+            Map<Long, Double> distances = new HashMap<>(keys.size() * 2);
+            for (long key : keys) {
+                double x = (BlockStore.sectionX(key) << 4) + 8;
+                double y = (BlockStore.sectionY(key) << 4) + 8;
+                double z = (BlockStore.sectionZ(key) << 4) + 8;
+                double nearest = Double.MAX_VALUE;
+                for (Vector viewer : viewers) {
+                    double dx = viewer.getX() - x;
+                    double dy = viewer.getY() - y;
+                    double dz = viewer.getZ() - z;
+                    nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+                }
+                distances.put(key, nearest);
+            }
+            keys.sort(Comparator.<Long>comparingDouble(distances::get).thenComparing(columns));
+        } else {
+            keys.sort(columns);
+        }
+        return keys;
+    }
+
+    /**
+     * Gathers the blocks pasted in a target section.
+     *
+     * @return Whether the section receives any block.
+     */
+    private static boolean gatherSection(BlockStore blocks, long key, int offsetX, int offsetY, int offsetZ,
+                                         boolean ignoreAir, Material[] out) {
+        if (!blocks.shiftedSection(BlockStore.sectionX(key), BlockStore.sectionY(key), BlockStore.sectionZ(key),
+                offsetX, offsetY, offsetZ, out)) return false;
+        if (!ignoreAir) return true;
+        boolean found = false;
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == Material.AIR) {
+                out[i] = null;
+            } else if (out[i] != null) {
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes the blocks of a target section on the main thread.
+     *
+     * @param section     The replacement of the whole section, or null to write the blocks one by one.
+     * @param commands    The writes of the blocks prepared off the main thread, or null to prepare them here.
+     * @param onlyChanged Whether to skip the blocks already matching the world.
+     * @param undo        Receives the overwritten blocks, or null to not record them.
+     * @return The number of blocks written.
+     */
+    private static int writeSection(World world, long key, Material[] blocks, Object section,
+                                    SectionCommands commands, boolean onlyChanged, UndoHistory.Entry undo) {
+        int chunkX = BlockStore.sectionX(key);
+        int sectionY = BlockStore.sectionY(key);
+        int chunkZ = BlockStore.sectionZ(key);
+        if (onlyChanged && !BlockChanger.removeUnchanged(world, chunkX, sectionY, chunkZ, blocks)) return 0;
+        if (undo != null) undo.record(chunkX, sectionY, chunkZ, blocks);
+        if (section != null) {
+            BlockChanger.replaceSection(world, chunkX, sectionY, chunkZ, section);
+            return BlockStore.SECTION_VOLUME;
+        }
+        if (commands == null) commands = SectionCommands.of(chunkX, sectionY, chunkZ, blocks);
+        else if (onlyChanged) commands.retain(blocks);
+        BlockChanger.setSectionCommands(world, commands);
+        return commands.size();
+    }
+
+    /**
+     * Builds the replacement of a target section when the schematic covers every block of it.
+     *
+     * @return The nms chunk section, or null when the section has to be written block by block.
+     */
+    private static Object fullSection(World world, long key, Material[] blocks) {
+        if (!BlockChanger.canReplaceSections()) return null;
+        for (Material material : blocks) {
+            if (material == null) return null;
+        }
+        return BlockChanger.newSection(world, BlockStore.sectionY(key), blocks);
     }
 
     /**
@@ -144,9 +611,12 @@ public class Schematic {
             writer.write((int) origin.getPitch() + ",");
 
             // Write origin coordinates
-            writer.write((int) origin.getX() + ",");
-            writer.write((int) origin.getY() + ",");
-            writer.write((int) origin.getZ() + ",");
+            int originX = originX();
+            int originY = originY();
+            int originZ = originZ();
+            writer.write(originX + ",");
+            writer.write(originY + ",");
+            writer.write(originZ + ",");
 
             // Write cuboid bounds
             int cuboidMinX = (int) Math.min(min.getX(), max.getX());
@@ -163,26 +633,86 @@ public class Schematic {
             writer.write(cuboidMaxY + ",");
             writer.write(cuboidMaxZ + ",");
 
-            // Write blocks grouped by material
-            Map<Material, List<Location>> materialBlocks = new HashMap<>();
-            Location originLoc = origin.toLocation();
-            for (Map.Entry<SerializableLocation, Material> entry : blocks.entrySet()) {
-                if (entry.getValue() != Material.AIR) {
-                    materialBlocks.computeIfAbsent(entry.getValue(), k -> new ArrayList<>())
-                            .add(entry.getKey().toLocation().subtract(originLoc));
+            // Write blocks section by section in chunk column order, grouped by material within each section,
+            // so a stream paste knows when a section is complete. Groups are counted first, a material may
+            // have a group in every section it appears in.
+            List<Long> keys = new ArrayList<>(blocks.shiftedSectionKeys(0, 0, 0));
+            keys.sort(CHUNK_COLUMNS);
+            Material[] materials = Material.values();
+            Material[] section = new Material[BlockStore.SECTION_VOLUME];
+            int[] counts = new int[materials.length];
+            int[] used = new int[BlockStore.SECTION_VOLUME];
+            int[] sorted = new int[BlockStore.SECTION_VOLUME];
+            int groupCount = 0;
+            for (long key : keys) {
+                int usedCount = countMaterials(key, section, counts, used);
+                for (int i = 0; i < usedCount; i++) {
+                    if (materials[used[i]] != Material.AIR) groupCount++;
+                    counts[used[i]] = 0;
                 }
             }
 
-            writer.write(materialBlocks.size() + ",");
-            for (Map.Entry<Material, List<Location>> entry : materialBlocks.entrySet()) {
-                writer.write(entry.getKey().name() + ",");
-                writer.write(entry.getValue().size() + ",");
-                for (Location loc : entry.getValue()) {
-                    writer.write((int) loc.getX() + "," + (int) loc.getY() + "," + (int) loc.getZ() + ",");
-                    writer.write((int) loc.getYaw() + "," + (int) loc.getPitch() + ",");
+            writer.write(groupCount + ",");
+            for (long key : keys) {
+                int usedCount = countMaterials(key, section, counts, used);
+                // Counting sort of the positions by material, counts become the start of each group
+                int start = 0;
+                for (int i = 0; i < usedCount; i++) {
+                    int count = counts[used[i]];
+                    counts[used[i]] = start;
+                    start += count;
+                }
+                for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                    if (section[i] != null) sorted[counts[section[i].ordinal()]++] = i;
+                }
+                int baseX = (BlockStore.sectionX(key) << 4) - originX;
+                int baseY = (BlockStore.sectionY(key) << 4) - originY;
+                int baseZ = (BlockStore.sectionZ(key) << 4) - originZ;
+                int end = 0;
+                for (int i = 0; i < usedCount; i++) {
+                    Material material = materials[used[i]];
+                    int from = end;
+                    end = counts[used[i]];
+                    counts[used[i]] = 0;
+                    if (material == Material.AIR) continue;
+                    writer.write(material.name() + ",");
+                    writer.write((end - from) + ",");
+                    for (int j = from; j < end; j++) {
+                        int index = sorted[j];
+                        writer.write((baseX + (index & 15)) + "," + (baseY + (index >> 8)) + ","
+                                + (baseZ + ((index >> 4) & 15)) + ",");
+                        // Block yaw and pitch, kept for compatibility with older schematics
+                        writer.write("0,0,");
+                    }
                 }
             }
+
+            // Write entities, one token each
+            writer.write(entities.size() + ",");
+            for (SerializableEntity entity : entities) {
+                writer.write(entity.serialize() + ",");
+            }
+        }
+    }
+
+    /**
+     * Gathers the stored blocks of a section and counts them by material ordinal.
+     *
+     * @param section Receives the blocks of the section.
+     * @param counts  Receives the number of blocks by material ordinal, expected to be all zeros.
+     * @param used    Receives the ordinals of the materials found, in the order they were first found.
+     * @return The number of materials found.
+     */
+    private int countMaterials(long key, Material[] section, int[] counts, int[] used) {
+        Arrays.fill(section, null);
+        blocks.shiftedSection(BlockStore.sectionX(key), BlockStore.sectionY(key), BlockStore.sectionZ(key),
+                0, 0, 0, section);
+        int usedCount = 0;
+        for (Material material : section) {
+            if (material == null) continue;
+            if (counts[material.ordinal()]++ == 0) used[usedCount++] = material.ordinal();
         }
+        return usedCount;
     }
 
     /**
@@ -221,45 +751,50 @@ public class Schematic {
             float pitch = Integer.parseInt(data[index++]);
 
             // Read origin coordinates
-            double originX = Integer.parseInt(data[index++]);
-            double originY = Integer.parseInt(data[index++]);
-            double originZ = Integer.parseInt(data[index++]);
+            int originX = Integer.parseInt(data[index++]);
+            int originY = Integer.parseInt(data[index++]);
+            int originZ = Integer.parseInt(data[index++]);
             this.origin = new SerializableLocation(worldName, originX, originY, originZ, yaw, pitch);
 
             // Read cuboid bounds
-            double cuboidMinX = Integer.parseInt(data[index++]);
-            double cuboidMinY = Integer.parseInt(data[index++]);
-            double cuboidMinZ = Integer.parseInt(data[index++]);
-            double cuboidMaxX = Integer.parseInt(data[index++]);
-            double cuboidMaxY = Integer.parseInt(data[index++]);
-            double cuboidMaxZ = Integer.parseInt(data[index++]);
-
-            // Read blocks grouped by material
+            int cuboidMinX = Integer.parseInt(data[index++]);
+            int cuboidMinY = Integer.parseInt(data[index++]);
+            int cuboidMinZ = Integer.parseInt(data[index++]);
+            int cuboidMaxX = Integer.parseInt(data[index++]);
+            int cuboidMaxY = Integer.parseInt(data[index++]);
+            int cuboidMaxZ = Integer.parseInt(data[index++]);
+            this.min = new SerializableLocation(worldName, cuboidMinX, cuboidMinY, cuboidMinZ, 0, 0);
+            this.max = new SerializableLocation(worldName, cuboidMaxX, cuboidMaxY, cuboidMaxZ, 0, 0);
+
+            // Read blocks grouped by material, a material may have several groups
             int materialCount = Integer.parseInt(data[index++]);
-            Location originLoc = origin.toLocation();
-            World world = originLoc.getWorld();
             for (int i = 0; i < materialCount; i++) {
                 Material material = Material.valueOf(data[index++]);
                 int blockCount = Integer.parseInt(data[index++]);
                 for (int j = 0; j < blockCount; j++) {
-                    double x = Integer.parseInt(data[index++]);
-                    double y = Integer.parseInt(data[index++]);
-                    double z = Integer.parseInt(data[index++]);
-                    float blockYaw = Integer.parseInt(data[index++]);
-                    float blockPitch = Integer.parseInt(data[index++]);
-                    Location relativeLoc = new Location(world, x, y, z, blockYaw, blockPitch).add(originLoc);
-                    this.blocks.put(new SerializableLocation(relativeLoc), material);
+                    int x = Integer.parseInt(data[index++]);
+                    int y = Integer.parseInt(data[index++]);
+                    int z = Integer.parseInt(data[index++]);
+                    // Skip block yaw and pitch
+                    index += 2;
+                    this.blocks.set(originX + x, originY + y, originZ + z, material);
                 }
             }
 
-            // Fill the rest with air blocks if needed
-            for (double x = cuboidMinX; x <= cuboidMaxX; x++) {
-                for (double y = cuboidMinY; y <= cuboidMaxY; y++) {
-                    for (double z = cuboidMinZ; z <= cuboidMaxZ; z++) {
-                        Location loc = new Location(world, x, y, z).add(originLoc);
-                        SerializableLocation serializableLoc = new SerializableLocation(loc);
-                        if (!blocks.containsKey(serializableLoc)) {
-                            blocks.put(serializableLoc, Material.AIR);
+            // Read entities, absent in schematics saved before entities were supported
+            if (index < data.length) {
+                int entityCount = Integer.parseInt(data[index++]);
+                for (int i = 0; i < entityCount; i++) {
+                    this.entities.add(SerializableEntity.deserialize(data[index++]));
+                }
+            }
+
+            // Fill the rest of the cuboid with air blocks, air is not written to the file
+            for (int x = cuboidMinX; x <= cuboidMaxX; x++) {
+                for (int y = cuboidMinY; y <= cuboidMaxY; y++) {
+                    for (int z = cuboidMinZ; z <= cuboidMaxZ; z++) {
+                        if (blocks.get(x, y, z) == null) {
+                            blocks.set(x, y, z, Material.AIR);
                         }
                     }
                 }
@@ -276,7 +811,25 @@ public class Schematic {
      * @return The created Schematic.
      */
     public static Schematic create(Location start, Location end, Location origin) {
-        return new Schematic(start, end, origin);
+        return create(start, end, origin, false);
+    }
+
+    /**
+     * Creates a new Schematic by copying blocks, and optionally entities, between two locations.
+     *
+     * @param start           The starting location of the area to copy.
+     * @param end             The ending location of the area to copy.
+     * @param origin          The origin location for the schematic.
+     * @param includeEntities Whether to copy armor stands, item frames, paintings and other entities in the area.
+     * @return The created Schematic.
+     */
+    public static Schematic create(Location start, Location end, Location origin, boolean includeEntities) {
+        Schematic schematic = new Schematic(start, end, origin);
+        schematic.copyBlocks(start, end, null);
+        if (includeEntities) {
+            schematic.copyEntities(start, end);
+        }
+        return schematic;
     }
 
     /**
@@ -288,7 +841,59 @@ public class Schematic {
      * @return A CompletableFuture that completes with the created Schematic.
      */
     public static CompletableFuture<Schematic> createAsync(Location start, Location end, Location origin) {
-        return CompletableFuture.supplyAsync(() -> new Schematic(start, end, origin));
+        return createAsync(start, end, origin, false);
+    }
+
+    /**
+     * Creates a new Schematic by copying blocks, and optionally entities, between two locations asynchronously.
+     * Chunks are read on the main thread within the per tick budget of the workload queue.
+     *
+     * @param start           The starting location of the area to copy.
+     * @param end             The ending location of the area to copy.
+     * @param origin          The origin location for the schematic.
+     * @param includeEntities Whether to copy armor stands, item frames, paintings and other entities in the area.
+     * @return A CompletableFuture that completes with the created Schematic.
+     */
+    public static CompletableFuture<Schematic> createAsync(Location start, Location end, Location origin,
+                                                           boolean includeEntities) {
+        return copyAsync(start, end, origin, includeEntities).getFuture();
+    }
+
+    /**
+     * Starts copying blocks between two locations, returning a job reporting the progress of the copy.
+     *
+     * @param start  The starting location of the area to copy.
+     * @param end    The ending location of the area to copy.
+     * @param origin The origin location for the schematic.
+     * @return The running copy job.
+     */
+    public static CopyJob copyAsync(Location start, Location end, Location origin) {
+        return copyAsync(start, end, origin, false);
+    }
+
+    /**
+     * Starts copying blocks, and optionally entities, between two locations,
+     * returning a job reporting the progress of the copy and allowing to cancel it.
+     * Chunks are read on the main thread within the per tick budget of the workload queue.
+     *
+     * @param start           The starting location of the area to copy.
+     * @param end             The ending location of the area to copy.
+     * @param origin          The origin location for the schematic.
+     * @param includeEntities Whether to copy armor stands, item frames, paintings and other entities in the area.
+     * @return The running copy job.
+     */
+    public static CopyJob copyAsync(Location start, Location end, Location origin, boolean includeEntities) {
+        Schematic schematic = new Schematic(start, end, origin);
+        CopyJob job = new CopyJob(CopyJob.countChunks(Math.min(start.getBlockX(), end.getBlockX()),
+                Math.min(start.getBlockZ(), end.getBlockZ()), Math.max(start.getBlockX(), end.getBlockX()),
+                Math.max(start.getBlockZ(), end.getBlockZ())));
+        job.complete(schematic.copyBlocks(start, end, job).thenApplyAsync(v -> {
+            if (includeEntities && !job.isCancelled()) {
+                schematic.copyEntities(start, end);
+            }
+            return schematic;
+        }));
+        return job;
     }
 
     /**
@@ -319,6 +924,306 @@ public class Schematic {
         });
     }
 
+    /**
+     * Pastes a schematic file at a given location without loading it into a Schematic first.
+     * The file is decoded on a daemon reader thread of its own, interrupted when the paste is cancelled,
+     * and its blocks are pasted through the workload queue as they are read, so the first blocks appear before
+     * the file is fully read and memory stays the same whatever the size of the file:
+     * at most {@value #STREAM_QUEUED_SECTIONS} sections wait for the main thread,
+     * the reader waits for them to be written past that.
+     * <p>
+     * Files are saved section by section, so each section is written once, as soon as its last stored block
+     * was read, with the air of the schematic folded in. Files saved before that order hold their blocks by
+     * material, their sections are written as they leave a bounded set of pending sections and may be
+     * written more than once.
+     *
+     * @param file          The schematic file.
+     * @param pasteLocation The location to paste the schematic.
+     * @param ignoreAir     Whether to leave the area around the stored blocks as it is.
+     * @param priority      The priority of the paste, see {@link WorkloadJob#WorkloadJob(int)}.
+     * @return The handle of the running paste.
+     */
+    public static PasteHandle pasteStream(File file, Location pasteLocation, boolean ignoreAir, int priority) {
+        WorkloadJob job = new WorkloadJob(priority);
+        PasteHandle handle = new PasteHandle(job, null, null);
+        Thread reader = new Thread(() -> {
+            try (TokenReader in = new TokenReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+                streamSections(in, pasteLocation, ignoreAir, handle);
+                if (!job.isCancelled()) BlockChanger.finishJob(job);
+            } catch (IOException | RuntimeException e) {
+                job.fail(e);
+            } catch (InterruptedException e) {
+                job.cancel();
+            }
+        }, "Tachyon stream paste");
+        reader.setDaemon(true);
+        // A cancelled or failed paste stops the reader, even while it waits for its queued sections
+        job.getFuture().whenComplete((ignored, e) -> {
+            if (e != null) reader.interrupt();
+        });
+        reader.start();
+        return handle;
+    }
+
+    /**
+     * Decodes a schematic file and queues its sections in the job of a paste.
+     */
+    private static void streamSections(TokenReader in, Location pasteLocation, boolean ignoreAir, PasteHandle handle)
+            throws IOException, InterruptedException {
+        WorkloadJob job = handle.job();
+        // Skip world name, yaw and pitch
+        in.skip(3);
+        int originX = in.nextInt();
+        int originY = in.nextInt();
+        int originZ = in.nextInt();
+        int offsetX = pasteLocation.getBlockX() - originX;
+        int offsetY = pasteLocation.getBlockY() - originY;
+        int offsetZ = pasteLocation.getBlockZ() - originZ;
+        int minX = in.nextInt() + offsetX;
+        int minY = in.nextInt() + offsetY;
+        int minZ = in.nextInt() + offsetZ;
+        int maxX = in.nextInt() + offsetX;
+        int maxY = in.nextInt() + offsetY;
+        int maxZ = in.nextInt() + offsetZ;
+        SectionStream stream = new SectionStream(handle, pasteLocation.getWorld(), ignoreAir, offsetX, offsetY, offsetZ,
+                Math.min(minX, maxX), Math.min(minY, maxY), Math.min(minZ, maxZ),
+                Math.max(minX, maxX), Math.max(minY, maxY), Math.max(minZ, maxZ));
+
+        int groupCount = in.nextInt();
+        for (int i = 0; i < groupCount && !job.isCancelled(); i++) {
+            Material material = Material.valueOf(in.next());
+            int blockCount = in.nextInt();
+            for (int j = 0; j < blockCount; j++) {
+                int x = in.nextInt();
+                int y = in.nextInt();
+                int z = in.nextInt();
+                // Skip block yaw and pitch
+                in.skip(2);
+                stream.block(originX + x, originY + y, originZ + z, material);
+            }
+        }
+        if (job.isCancelled()) return;
+        stream.finish();
+
+        // Entities, absent in schematics saved before entities were supported
+        if (in.hasNext()) {
+            int entityCount = in.nextInt();
+            List<Runnable> spawns = new ArrayList<>(entityCount);
+            for (int i = 0; i < entityCount; i++) {
+                SerializableEntity entity = SerializableEntity.deserialize(in.next());
+                spawns.add(() -> entity.spawn(pasteLocation.getWorld(), pasteLocation.getBlockX(),
+                        pasteLocation.getBlockY(), pasteLocation.getBlockZ()));
+            }
+            // Queued behind the block workloads, so entities only spawn after the last block is placed.
+            BlockChanger.runAsynchronously(job, spawns);
+        }
+    }
+
+    /**
+     * The target sections of a stream paste. A target section is kept pending until every stored section
+     * overlapping it was read, which {@link #save(File)} makes happen in chunk column order, then it is written
+     * once with the air of the schematic folded in. Files saved before that order are written as the pending
+     * sections are evicted and at the end, so their sections may be written more than once.
+     */
+    private static final class SectionStream {
+        private final PasteHandle handle;
+        private final World world;
+        private final boolean ignoreAir;
+        private final int offsetX;
+        private final int offsetY;
+        private final int offsetZ;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+        private final int sizeY;
+        private final int sizeZ;
+        private final Semaphore queued = new Semaphore(STREAM_QUEUED_SECTIONS);
+        private final Map<Long, Material[]> pending = new HashMap<>();
+        /**
+         * The pending sections, the one completed first at the head
+         */
+        private final PriorityQueue<Long> completion;
+        private final Map<Long, Material[]> ready = new HashMap<>();
+        /**
+         * The target sections within the bounds of the schematic written at least once
+         */
+        private final BitSet written;
+        private long lastSource;
+        private boolean started;
+        private boolean ordered = true;
+
+        private SectionStream(PasteHandle handle, World world, boolean ignoreAir, int offsetX, int offsetY,
+                              int offsetZ, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.handle = handle;
+            this.world = world;
+            this.ignoreAir = ignoreAir;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.offsetZ = offsetZ;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.sizeY = (maxY >> 4) - (minY >> 4) + 1;
+            this.sizeZ = (maxZ >> 4) - (minZ >> 4) + 1;
+            int sections = ((maxX >> 4) - (minX >> 4) + 1) * sizeY * sizeZ;
+            this.written = new BitSet(sections);
+            this.completion = new PriorityQueue<>(Comparator.comparing(this::lastSource, CHUNK_COLUMNS));
+            handle.setTotalSections(sections);
+        }
+
+        /**
+         * Adds a stored block, in the coordinates of the schematic file.
+         */
+        private void block(int sourceX, int sourceY, int sourceZ, Material material) throws InterruptedException {
+            long source = BlockStore.sectionKey(sourceX >> 4, sourceY >> 4, sourceZ >> 4);
+            if (started && source != lastSource && ordered) {
+                if (CHUNK_COLUMNS.compare(source, lastSource) < 0) {
+                    // Saved before sections were written in order, they are only complete at the end
+                    ordered = false;
+                } else {
+                    while (!completion.isEmpty() && CHUNK_COLUMNS.compare(lastSource(completion.peek()), source) < 0) {
+                        long key = completion.poll();
+                        ready.put(key, pending.remove(key));
+                    }
+                    queueReady();
+                }
+            }
+            started = true;
+            lastSource = source;
+
+            int x = sourceX + offsetX;
+            int y = sourceY + offsetY;
+            int z = sourceZ + offsetZ;
+            long key = BlockStore.sectionKey(x >> 4, y >> 4, z >> 4);
+            Material[] blocks = pending.get(key);
+            if (blocks == null) {
+                if (pending.size() >= STREAM_PENDING_SECTIONS) {
+                    long evicted = completion.poll();
+                    ready.put(evicted, pending.remove(evicted));
+                    if (ready.size() >= STREAM_READY_SECTIONS) queueReady();
+                }
+                blocks = new Material[BlockStore.SECTION_VOLUME];
+                pending.put(key, blocks);
+                completion.add(key);
+            }
+            blocks[BlockStore.index(x & 15, y & 15, z & 15)] = material;
+        }
+
+        /**
+         * Queues the sections still pending, then the sections of the bounds without any stored block.
+         */
+        private void finish() throws InterruptedException {
+            ready.putAll(pending);
+            pending.clear();
+            completion.clear();
+            queueReady();
+            for (int sectionX = minX >> 4; sectionX <= maxX >> 4; sectionX++) {
+                for (int sectionZ = minZ >> 4; sectionZ <= maxZ >> 4; sectionZ++) {
+                    for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+                        long key = BlockStore.sectionKey(sectionX, sectionY, sectionZ);
+                        if (written.get(index(key))) continue;
+                        if (ignoreAir) {
+                            written.set(index(key));
+                            handle.sectionDone(0);
+                            continue;
+                        }
+                        ready.put(key, new Material[BlockStore.SECTION_VOLUME]);
+                        if (ready.size() >= STREAM_READY_SECTIONS) queueReady();
+                    }
+                }
+            }
+            queueReady();
+        }
+
+        /**
+         * Gets the last stored section overlapping a target section, in chunk column order.
+         */
+        private long lastSource(long key) {
+            return BlockStore.sectionKey(((BlockStore.sectionX(key) << 4) + 15 - offsetX) >> 4,
+                    ((BlockStore.sectionY(key) << 4) + 15 - offsetY) >> 4,
+                    ((BlockStore.sectionZ(key) << 4) + 15 - offsetZ) >> 4);
+        }
+
+        /**
+         * Gets the index of a target section within the bounds, or -1 outside of them.
+         */
+        private int index(long key) {
+            int x = BlockStore.sectionX(key) - (minX >> 4);
+            int y = BlockStore.sectionY(key) - (minY >> 4);
+            int z = BlockStore.sectionZ(key) - (minZ >> 4);
+            if (x < 0 || y < 0 || z < 0 || x > (maxX >> 4) - (minX >> 4) || y >= sizeY || z >= sizeZ) return -1;
+            return (x * sizeZ + z) * sizeY + y;
+        }
+
+        /**
+         * Queues the ready sections chunk by chunk, waiting while too many sections are queued.
+         */
+        private void queueReady() throws InterruptedException {
+            if (ready.isEmpty()) return;
+            WorkloadJob job = handle.job();
+            List<Long> keys = new ArrayList<>(ready.keySet());
+            keys.sort(CHUNK_COLUMNS);
+            for (int i = 0; i < keys.size(); i++) {
+                long key = keys.get(i);
+                // A cancelled job drops its workloads, so their permits are never given back
+                while (!queued.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    if (job.isCancelled()) return;
+                }
+                long chunk = chunkKey(key);
+                if (i == 0 || chunkKey(keys.get(i - 1)) != chunk) {
+                    BlockChanger.loadChunkAsynchronously(job, world, BlockStore.sectionX(key), BlockStore.sectionZ(key));
+                }
+                queueSection(key, ready.get(key));
+                if (i == keys.size() - 1 || chunkKey(keys.get(i + 1)) != chunk) {
+                    BlockChanger.releaseChunkAsynchronously(job, world, BlockStore.sectionX(key), BlockStore.sectionZ(key));
+                }
+            }
+            ready.clear();
+        }
+
+        /**
+         * Queues the write of a target section, prepared off the main thread. The air of the bounds is only
+         * folded in the first write of a section, later writes would overwrite the blocks of the earlier ones.
+         */
+        private void queueSection(long key, Material[] blocks) {
+            int index = index(key);
+            boolean first = index >= 0 && !written.get(index);
+            if (first) {
+                written.set(index);
+                if (!ignoreAir) foldAir(key, blocks);
+            }
+            Object section = fullSection(world, key, blocks);
+            SectionCommands commands = section != null ? null : SectionCommands.of(BlockStore.sectionX(key),
+                    BlockStore.sectionY(key), BlockStore.sectionZ(key), blocks);
+            BlockChanger.runAsynchronously(handle.job(), Collections.singletonList(() -> {
+                int blocksWritten = writeSection(world, key, blocks, section, commands, false, null);
+                if (first) handle.sectionDone(blocksWritten);
+                else handle.blocksWritten(blocksWritten);
+                queued.release();
+            }));
+        }
+
+        private void foldAir(long key, Material[] blocks) {
+            int baseX = BlockStore.sectionX(key) << 4;
+            int baseY = BlockStore.sectionY(key) << 4;
+            int baseZ = BlockStore.sectionZ(key) << 4;
+            for (int y = Math.max(minY, baseY); y <= Math.min(maxY, baseY + 15); y++) {
+                for (int z = Math.max(minZ, baseZ); z <= Math.min(maxZ, baseZ + 15); z++) {
+                    for (int x = Math.max(minX, baseX); x <= Math.min(maxX, baseX + 15); x++) {
+                        int i = BlockStore.index(x & 15, y & 15, z & 15);
+                        if (blocks[i] == null) blocks[i] = Material.AIR;
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Rotates the schematic by a specified angle (in degrees) clockwise around the origin using matrix transformation
      * on the block locations for faster and more efficient rotation. Only angles that are multiples of 90 are allowed.
@@ -327,9 +1232,6 @@ public class Schematic {
      * @param angle The angle of rotation in degrees.
      */
     public void rotate(double angle) {
-        Map<SerializableLocation, Material> rotatedBlocks = new ConcurrentHashMap<>();
-        Location originLoc = origin.toLocation();
-
         // normalize angle to be within the range [0, 360)
         angle = ((angle % 360) + 360) % 360;
 
@@ -337,41 +1239,10 @@ public class Schematic {
         int roundedAngle = (int) (Math.round(angle / 90.0) * 90);
 
         // get number of effective rotations. ie when we have to prevent rotating by 540 degrees when we can just rotate by 180 once.
-        int effectiveRotations = roundedAngle / 90;
-
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            Location loc = entry.getKey().toLocation();
-            loc.subtract(originLoc);
-
-            double newX = loc.getX();
-            double newZ = loc.getZ();
-
-            // apply the appropriate matrix transformation based on the effective rotations
-            switch (effectiveRotations) {
-                case 1: // 90 degrees or 1 effective rotation
-                    newX = -loc.getZ();
-                    newZ = loc.getX();
-                    break;
-                case 2: // 180 degrees or 2 effective rotations
-                    newX = -loc.getX();
-                    newZ = -loc.getZ();
-                    break;
-                case 3: // 270 degrees or 3 effective rotations
-                    newX = loc.getZ();
-                    newZ = -loc.getX();
-                    break;
-                default: // no effective rotation
-                    break;
-            }
-
-            loc.setX(newX);
-            loc.setZ(newZ);
-            loc.add(originLoc);
+        int effectiveRotations = (roundedAngle / 90) % 4;
 
-            rotatedBlocks.put(new SerializableLocation(loc), entry.getValue());
-        });
-
-        blocks = rotatedBlocks;
+        transform(effectiveRotations, false, false);
+        entities.forEach(entity -> entity.rotate(effectiveRotations));
     }
 
     /**
@@ -402,88 +1273,32 @@ public class Schematic {
      * Flips the schematic upwards around the origin.
      */
     private void flipUp() {
-        Map<SerializableLocation, Material> flippedBlocks = new ConcurrentHashMap<>();
-        Location originLoc = origin.toLocation();
-
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            Location loc = entry.getKey().toLocation();
-            loc.subtract(originLoc);
-
-            double newY = -loc.getY();
-
-            loc.setY(newY);
-            loc.add(originLoc);
-
-            flippedBlocks.put(new SerializableLocation(loc), entry.getValue());
-        });
-
-        blocks = flippedBlocks;
+        transform(0, false, true);
+        entities.forEach(SerializableEntity::flipVertically);
     }
 
     /**
      * Flips the schematic downwards around the origin.
      */
     private void flipDown() {
-        Map<SerializableLocation, Material> flippedBlocks = new ConcurrentHashMap<>();
-        Location originLoc = origin.toLocation();
-
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            Location loc = entry.getKey().toLocation();
-            loc.subtract(originLoc);
-
-            double newY = -loc.getY();
-
-            loc.setY(newY);
-            loc.add(originLoc);
-
-            flippedBlocks.put(new SerializableLocation(loc), entry.getValue());
-        });
-
-        blocks = flippedBlocks;
+        transform(0, false, true);
+        entities.forEach(SerializableEntity::flipVertically);
     }
 
     /**
      * Flips the schematic to the left around the origin.
      */
     private void flipLeft() {
-        Map<SerializableLocation, Material> flippedBlocks = new ConcurrentHashMap<>();
-        Location originLoc = origin.toLocation();
-
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            Location loc = entry.getKey().toLocation();
-            loc.subtract(originLoc);
-
-            double newX = -loc.getX();
-
-            loc.setX(newX);
-            loc.add(originLoc);
-
-            flippedBlocks.put(new SerializableLocation(loc), entry.getValue());
-        });
-
-        blocks = flippedBlocks;
+        transform(0, true, false);
+        entities.forEach(SerializableEntity::flipHorizontally);
     }
 
     /**
      * Flips the schematic to the right around the origin.
      */
     private void flipRight() {
-        Map<SerializableLocation, Material> flippedBlocks = new ConcurrentHashMap<>();
-        Location originLoc = origin.toLocation();
-
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            Location loc = entry.getKey().toLocation();
-            loc.subtract(originLoc);
-
-            double newX = -loc.getX();
-
-            loc.setX(newX);
-            loc.add(originLoc);
-
-            flippedBlocks.put(new SerializableLocation(loc), entry.getValue());
-        });
-
-        blocks = flippedBlocks;
+        transform(0, true, false);
+        entities.forEach(SerializableEntity::flipHorizontally);
     }
 
     /**
@@ -493,11 +1308,66 @@ public class Schematic {
      * @param to   The material to replace with.
      */
     public void replaceBlocks(Material from, Material to) {
-        blocks.entrySet().parallelStream().forEach(entry -> {
-            if (entry.getValue() == from) {
-                entry.setValue(to);
-            }
+        blocks.replace(from, to);
+    }
+
+    /**
+     * Rotates and mirrors every block, and the cuboid bounds, around the origin block.
+     *
+     * @param rotations The number of 90 degree clockwise rotations, between 0 and 3.
+     * @param mirrorX   Whether to mirror the x axis.
+     * @param mirrorY   Whether to mirror the y axis.
+     */
+    private void transform(int rotations, boolean mirrorX, boolean mirrorY) {
+        PasteTransform transform = PasteTransform.of(rotations, mirrorX, mirrorY);
+        blocks = transformedBlocks(transform);
+
+        int originX = originX();
+        int originY = originY();
+        int originZ = originZ();
+        SerializableLocation[] corners = {min, max};
+        for (int i = 0; i < corners.length; i++) {
+            int relX = (int) corners[i].getX() - originX;
+            int relY = (int) corners[i].getY() - originY;
+            int relZ = (int) corners[i].getZ() - originZ;
+            corners[i] = new SerializableLocation(corners[i].getWorldName(), originX + transform.x(relX, relZ),
+                    originY + transform.y(relY), originZ + transform.z(relX, relZ), 0, 0);
+        }
+        min = corners[0];
+        max = corners[1];
+    }
+
+    /**
+     * Copies the blocks moved by a transform around the origin block.
+     */
+    private BlockStore transformedBlocks(PasteTransform transform) {
+        int originX = originX();
+        int originY = originY();
+        int originZ = originZ();
+        BlockStore transformed = new BlockStore();
+        blocks.parallelForEach((x, y, z, material) -> {
+            int relX = x - originX;
+            int relZ = z - originZ;
+            transformed.set(originX + transform.x(relX, relZ), originY + transform.y(y - originY),
+                    originZ + transform.z(relX, relZ), material);
         });
+        return transformed;
+    }
+
+    int originX() {
+        return (int) Math.floor(origin.getX());
+    }
+
+    int originY() {
+        return (int) Math.floor(origin.getY());
+    }
+
+    int originZ() {
+        return (int) Math.floor(origin.getZ());
+    }
+
+    BlockStore blocks() {
+        return blocks;
     }
 
     /**
@@ -506,7 +1376,16 @@ public class Schematic {
      * @return The number of blocks in the schematic.
      */
     public int getBlockCount() {
-        return blocks.size();
+        return (int) blocks.count();
+    }
+
+    /**
+     * Gets the number of entities in the schematic.
+     *
+     * @return The number of entities in the schematic.
+     */
+    public int getEntityCount() {
+        return entities.size();
     }
 
     /**
@@ -0,0 +1,75 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+
+/**
+ * The writes of a paste into one world section, prepared off the main thread.
+ * Positions are packed local indices in y, z, x order, each paired with its resolved nms block data,
+ * so the main thread only has to write them into the section.
+ */
+final class SectionCommands {
+    final int chunkX;
+    final int sectionY;
+    final int chunkZ;
+    final char[] indices;
+    final Object[] states;
+    private int size;
+
+    private SectionCommands(int chunkX, int sectionY, int chunkZ, int capacity) {
+        this.chunkX = chunkX;
+        this.sectionY = sectionY;
+        this.chunkZ = chunkZ;
+        this.indices = new char[capacity];
+        this.states = new Object[capacity];
+    }
+
+    /**
+     * Prepares the writes of a section.
+     *
+     * @param blocks 4096 materials in y, z, x order, null entries are left as they are.
+     * @throws NullPointerException If a material has no block data.
+     */
+    static SectionCommands of(int chunkX, int sectionY, int chunkZ, Material[] blocks) {
+        int count = 0;
+        for (Material material : blocks) {
+            if (material != null) count++;
+        }
+        SectionCommands commands = new SectionCommands(chunkX, sectionY, chunkZ, count);
+        Material lastMaterial = null;
+        Object blockData = null;
+        for (int i = 0; i < blocks.length; i++) {
+            Material material = blocks[i];
+            if (material == null) continue;
+            if (material != lastMaterial) {
+                blockData = BlockChanger.getBlockData(material);
+                if (blockData == null)
+                    throw new NullPointerException("Unable to retrieve block data for the corresponding material.");
+                lastMaterial = material;
+            }
+            commands.indices[commands.size] = (char) i;
+            commands.states[commands.size++] = blockData;
+        }
+        return commands;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drops the writes whose position was cleared in the given blocks since they were prepared.
+     */
+    void retain(Material[] blocks) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (blocks[indices[i]] == null) continue;
+            indices[kept] = indices[i];
+            states[kept++] = states[i];
+        }
+        for (int i = kept; i < size; i++) {
+            states[i] = null;
+        }
+        size = kept;
+    }
+
+}
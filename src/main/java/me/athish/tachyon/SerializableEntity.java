@@ -0,0 +1,353 @@
+package me.athish.tachyon;
+
+import org.bukkit.Art;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Rotation;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Hanging;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Painting;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.EulerAngle;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A compact, world independent copy of an entity stored inside a {@link Schematic}.
+ * Positions are stored relative to the schematic origin block.
+ * Armor stands, item frames and paintings keep their type specific state, every other entity keeps its type,
+ * position, rotation and custom name.
+ * Items are kept whole, with their enchantments, names, lore and other meta.
+ */
+public class SerializableEntity {
+    private static final String FIELD_SEPARATOR = ";";
+    private static final String ITEM_SEPARATOR = ":";
+
+    private final EntityType type;
+    private double x;
+    private double y;
+    private double z;
+    private float yaw;
+    private float pitch;
+    private String customName;
+
+    // Hanging entities (item frames and paintings)
+    private BlockFace facing;
+    private Art art;
+    private ItemStack item;
+    private Rotation itemRotation;
+
+    // Armor stands, equipment is ordered hand, helmet, chestplate, leggings, boots
+    private ItemStack[] equipment;
+    private EulerAngle[] poses;
+    private int flags;
+
+    private SerializableEntity(EntityType type) {
+        this.type = type;
+    }
+
+    /**
+     * Copies an entity relative to the given origin block.
+     *
+     * @param entity  The entity to copy.
+     * @param originX The x coordinate of the origin block.
+     * @param originY The y coordinate of the origin block.
+     * @param originZ The z coordinate of the origin block.
+     */
+    public SerializableEntity(Entity entity, int originX, int originY, int originZ) {
+        Location location = entity.getLocation();
+        this.type = entity.getType();
+        this.x = location.getX() - originX;
+        this.y = location.getY() - originY;
+        this.z = location.getZ() - originZ;
+        this.yaw = location.getYaw();
+        this.pitch = location.getPitch();
+        this.customName = entity.getCustomName();
+
+        if (entity instanceof Hanging) {
+            this.facing = ((Hanging) entity).getFacing();
+        }
+        if (entity instanceof Painting) {
+            this.art = ((Painting) entity).getArt();
+        } else if (entity instanceof ItemFrame) {
+            ItemFrame frame = (ItemFrame) entity;
+            this.item = frame.getItem();
+            this.itemRotation = frame.getRotation();
+        } else if (entity instanceof ArmorStand) {
+            ArmorStand stand = (ArmorStand) entity;
+            this.equipment = new ItemStack[]{stand.getItemInHand(), stand.getHelmet(), stand.getChestplate(),
+                    stand.getLeggings(), stand.getBoots()};
+            this.poses = new EulerAngle[]{stand.getHeadPose(), stand.getBodyPose(), stand.getLeftArmPose(),
+                    stand.getRightArmPose(), stand.getLeftLegPose(), stand.getRightLegPose()};
+            this.flags = (stand.isSmall() ? 1 : 0) | (stand.hasArms() ? 2 : 0) | (stand.hasBasePlate() ? 4 : 0)
+                    | (stand.isVisible() ? 8 : 0) | (stand.hasGravity() ? 16 : 0);
+        }
+    }
+
+    /**
+     * Whether an entity should be copied into a schematic.
+     * Players and entities that cannot be spawned back (dropped items, projectiles, ...) are skipped.
+     *
+     * @param entity The entity to check.
+     * @return true if the entity can be stored and spawned again.
+     */
+    public static boolean isCopyable(Entity entity) {
+        EntityType type = entity.getType();
+        return type != EntityType.PLAYER && type.isSpawnable();
+    }
+
+    /**
+     * Spawns this entity relative to the given paste origin block.
+     * Must be called on the main thread, after the blocks the entity hangs on or stands on were placed.
+     *
+     * @param world   The world to spawn the entity in.
+     * @param originX The x coordinate of the paste origin block.
+     * @param originY The y coordinate of the paste origin block.
+     * @param originZ The z coordinate of the paste origin block.
+     * @return The spawned entity, or null if it could not be placed.
+     */
+    public Entity spawn(World world, int originX, int originY, int originZ) {
+        Location location = new Location(world, originX + x, originY + y, originZ + z, yaw, pitch);
+        Entity entity;
+        try {
+            entity = facing != null ? world.spawn(location, type.getEntityClass()) : world.spawnEntity(location, type);
+        } catch (IllegalArgumentException e) {
+            // Hanging entities throw when there is no block to attach to.
+            return null;
+        }
+
+        if (customName != null) {
+            entity.setCustomName(customName);
+        }
+        if (entity instanceof Hanging && facing != null) {
+            ((Hanging) entity).setFacingDirection(facing, true);
+        }
+        if (entity instanceof Painting && art != null) {
+            ((Painting) entity).setArt(art, true);
+        } else if (entity instanceof ItemFrame) {
+            ItemFrame frame = (ItemFrame) entity;
+            if (item != null) frame.setItem(item);
+            if (itemRotation != null) frame.setRotation(itemRotation);
+        } else if (entity instanceof ArmorStand && equipment != null) {
+            ArmorStand stand = (ArmorStand) entity;
+            stand.setItemInHand(equipment[0]);
+            stand.setHelmet(equipment[1]);
+            stand.setChestplate(equipment[2]);
+            stand.setLeggings(equipment[3]);
+            stand.setBoots(equipment[4]);
+            stand.setHeadPose(poses[0]);
+            stand.setBodyPose(poses[1]);
+            stand.setLeftArmPose(poses[2]);
+            stand.setRightArmPose(poses[3]);
+            stand.setLeftLegPose(poses[4]);
+            stand.setRightLegPose(poses[5]);
+            stand.setSmall((flags & 1) != 0);
+            stand.setArms((flags & 2) != 0);
+            stand.setBasePlate((flags & 4) != 0);
+            stand.setVisible((flags & 8) != 0);
+            stand.setGravity((flags & 16) != 0);
+        }
+        return entity;
+    }
+
+    /**
+     * Rotates the entity clockwise around the origin block, matching {@link Schematic#rotate(double)}.
+     *
+     * @param rotations The number of 90 degree clockwise rotations, between 0 and 3.
+     */
+    public void rotate(int rotations) {
+        for (int i = 0; i < rotations; i++) {
+            // blocks rotate around the centre of the origin block
+            double newX = 1 - z;
+            z = x;
+            x = newX;
+            yaw += 90;
+            if (facing != null) facing = rotateClockwise(facing);
+        }
+        yaw = ((yaw % 360) + 360) % 360;
+    }
+
+    /**
+     * Mirrors the entity vertically around the origin block.
+     */
+    public void flipVertically() {
+        y = 1 - y;
+        pitch = -pitch;
+    }
+
+    /**
+     * Mirrors the entity along the x axis around the origin block.
+     */
+    public void flipHorizontally() {
+        x = 1 - x;
+        yaw = -yaw;
+        if (facing == BlockFace.EAST) {
+            facing = BlockFace.WEST;
+        } else if (facing == BlockFace.WEST) {
+            facing = BlockFace.EAST;
+        }
+    }
+
+    /**
+     * Encodes this entity as a single token without commas, so it fits the schematic file format.
+     *
+     * @return The encoded entity.
+     */
+    public String serialize() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(type.name()).append(FIELD_SEPARATOR)
+                .append(x).append(FIELD_SEPARATOR)
+                .append(y).append(FIELD_SEPARATOR)
+                .append(z).append(FIELD_SEPARATOR)
+                .append(yaw).append(FIELD_SEPARATOR)
+                .append(pitch).append(FIELD_SEPARATOR)
+                .append(encodeName(customName)).append(FIELD_SEPARATOR)
+                .append(facing == null ? "" : facing.name());
+
+        if (art != null) {
+            builder.append(FIELD_SEPARATOR).append(art.name());
+        } else if (itemRotation != null) {
+            builder.append(FIELD_SEPARATOR).append(encodeItem(item))
+                    .append(FIELD_SEPARATOR).append(itemRotation.name());
+        } else if (equipment != null) {
+            for (ItemStack itemStack : equipment) {
+                builder.append(FIELD_SEPARATOR).append(encodeItem(itemStack));
+            }
+            for (EulerAngle pose : poses) {
+                builder.append(FIELD_SEPARATOR).append(pose.getX())
+                        .append(ITEM_SEPARATOR).append(pose.getY())
+                        .append(ITEM_SEPARATOR).append(pose.getZ());
+            }
+            builder.append(FIELD_SEPARATOR).append(flags);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes an entity written by {@link #serialize()}.
+     *
+     * @param token The encoded entity.
+     * @return The decoded entity.
+     */
+    public static SerializableEntity deserialize(String token) {
+        String[] data = token.split(FIELD_SEPARATOR, -1);
+        int index = 0;
+
+        SerializableEntity entity = new SerializableEntity(EntityType.valueOf(data[index++]));
+        entity.x = Double.parseDouble(data[index++]);
+        entity.y = Double.parseDouble(data[index++]);
+        entity.z = Double.parseDouble(data[index++]);
+        entity.yaw = Float.parseFloat(data[index++]);
+        entity.pitch = Float.parseFloat(data[index++]);
+        entity.customName = decodeName(data[index++]);
+        String facing = data[index++];
+        entity.facing = facing.isEmpty() ? null : BlockFace.valueOf(facing);
+
+        int remaining = data.length - index;
+        if (entity.type == EntityType.PAINTING && remaining == 1) {
+            entity.art = Art.valueOf(data[index]);
+        } else if (entity.type == EntityType.ITEM_FRAME && remaining == 2) {
+            entity.item = decodeItem(data[index++]);
+            entity.itemRotation = Rotation.valueOf(data[index]);
+        } else if (entity.type == EntityType.ARMOR_STAND && remaining == 12) {
+            entity.equipment = new ItemStack[5];
+            for (int i = 0; i < entity.equipment.length; i++) {
+                entity.equipment[i] = decodeItem(data[index++]);
+            }
+            entity.poses = new EulerAngle[6];
+            for (int i = 0; i < entity.poses.length; i++) {
+                String[] angles = data[index++].split(ITEM_SEPARATOR);
+                entity.poses[i] = new EulerAngle(Double.parseDouble(angles[0]), Double.parseDouble(angles[1]),
+                        Double.parseDouble(angles[2]));
+            }
+            entity.flags = Integer.parseInt(data[index]);
+        }
+        return entity;
+    }
+
+    private static BlockFace rotateClockwise(BlockFace face) {
+        switch (face) {
+            case NORTH:
+                return BlockFace.EAST;
+            case EAST:
+                return BlockFace.SOUTH;
+            case SOUTH:
+                return BlockFace.WEST;
+            case WEST:
+                return BlockFace.NORTH;
+            default:
+                return face;
+        }
+    }
+
+    private static String encodeName(String name) {
+        if (name == null) return "";
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeName(String encoded) {
+        if (encoded.isEmpty()) return null;
+        return new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes an item with the Bukkit configuration serialization, so its meta is kept.
+     * The url safe Base64 alphabet holds no separator.
+     */
+    private static String encodeItem(ItemStack itemStack) {
+        if (itemStack == null || itemStack.getType() == Material.AIR) return "";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BukkitObjectOutputStream output = new BukkitObjectOutputStream(bytes)) {
+            output.writeObject(itemStack);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private static ItemStack decodeItem(String encoded) {
+        if (encoded.isEmpty()) return null;
+        // Schematics saved before items were kept whole hold type:durability:amount
+        if (encoded.contains(ITEM_SEPARATOR)) {
+            String[] data = encoded.split(ITEM_SEPARATOR);
+            return new ItemStack(Material.valueOf(data[0]), Integer.parseInt(data[2]), Short.parseShort(data[1]));
+        }
+        try (BukkitObjectInputStream input = new BukkitObjectInputStream(
+                new ByteArrayInputStream(Base64.getUrlDecoder().decode(encoded)))) {
+            return (ItemStack) input.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Invalid item: " + encoded, e);
+        }
+    }
+
+    public EntityType getType() {
+        return type;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+}
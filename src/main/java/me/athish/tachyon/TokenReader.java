@@ -0,0 +1,101 @@
+package me.athish.tachyon;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the comma separated tokens of a schematic file one at a time,
+ * so a file can be decoded without holding all of it in memory.
+ */
+final class TokenReader implements Closeable {
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder token = new StringBuilder();
+    private int position;
+    private int limit;
+
+    TokenReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Gets whether another token follows.
+     */
+    boolean hasNext() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) return false;
+            char c = buffer[position];
+            if (c != '\n' && c != '\r') return true;
+            position++;
+        }
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @throws EOFException If the file has no more token.
+     */
+    String next() throws IOException {
+        if (!hasNext()) throw new EOFException("Unexpected end of schematic file");
+        token.setLength(0);
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c == ',') break;
+            if (c != '\n' && c != '\r') token.append(c);
+        }
+        return token.toString();
+    }
+
+    /**
+     * Reads the next token as an int, without building a string for it.
+     *
+     * @throws EOFException If the file has no more token.
+     */
+    int nextInt() throws IOException {
+        if (!hasNext()) throw new EOFException("Unexpected end of schematic file");
+        boolean negative = false;
+        int value = 0;
+        int digits = 0;
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c == ',') break;
+            if (c == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else {
+                throw new NumberFormatException("Invalid character in number: " + c);
+            }
+        }
+        if (digits == 0) throw new NumberFormatException("Empty number");
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips the given number of tokens.
+     */
+    void skip(int tokens) throws IOException {
+        for (int i = 0; i < tokens; i++) {
+            while (position < limit || fill()) {
+                if (buffer[position++] == ',') break;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer);
+        if (read <= 0) return false;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,263 @@
+package me.athish.tachyon;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A bounded history of the blocks overwritten by pastes, so they can be undone.
+ * Keep one history per player or plugin and pass it to
+ * {@link Schematic#pasteAsync(org.bukkit.Location, boolean, boolean, UndoHistory)}.
+ * <p>
+ * Only the positions written by a paste are kept, in a section sparse, palette compressed {@link BlockStore}.
+ * Once the kept pastes go over the memory limit, the oldest ones are written to disk
+ * and read back when undone.
+ */
+public class UndoHistory {
+    private final int maxEntries;
+    private final long maxMemoryBytes;
+    private final File spillFolder;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    /**
+     * Creates a history spilling to the default temporary folder.
+     *
+     * @param maxEntries     The number of pastes kept, older ones are forgotten.
+     * @param maxMemoryBytes The memory kept pastes may use before the oldest ones are written to disk.
+     */
+    public UndoHistory(int maxEntries, long maxMemoryBytes) {
+        this(maxEntries, maxMemoryBytes, null);
+    }
+
+    /**
+     * Creates a history.
+     *
+     * @param maxEntries     The number of pastes kept, older ones are forgotten.
+     * @param maxMemoryBytes The memory kept pastes may use before the oldest ones are written to disk.
+     * @param spillFolder    The folder receiving pastes written to disk, or null for the default temporary folder.
+     */
+    public UndoHistory(int maxEntries, long maxMemoryBytes, File spillFolder) {
+        if (maxEntries < 1) throw new IllegalArgumentException("At least one entry has to be kept");
+        this.maxEntries = maxEntries;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillFolder = spillFolder;
+    }
+
+    /**
+     * Gets the number of pastes that can be undone.
+     *
+     * @return The number of kept pastes.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean canUndo() {
+        return !entries.isEmpty();
+    }
+
+    /**
+     * Restores the blocks overwritten by the last paste, section by section through the workload queue.
+     *
+     * @return A future completing once every block is restored, or right away when there is nothing to undo.
+     */
+    public CompletableFuture<Void> undo() {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.pollLast();
+        }
+        if (entry == null) return CompletableFuture.completedFuture(null);
+        return restore(entry);
+    }
+
+    /**
+     * Restores the blocks recorded by an entry, section by section through the workload queue.
+     *
+     * @return A future completing once every block is restored.
+     */
+    static CompletableFuture<Void> restore(Entry entry) {
+        return CompletableFuture.supplyAsync(() -> {
+            BlockStore store = entry.load();
+            entry.delete();
+            WorkloadJob job = new WorkloadJob();
+            for (long key : store.shiftedSectionKeys(0, 0, 0)) {
+                Material[] blocks = new Material[BlockStore.SECTION_VOLUME];
+                if (!store.shiftedSection(BlockStore.sectionX(key), BlockStore.sectionY(key),
+                        BlockStore.sectionZ(key), 0, 0, 0, blocks)) continue;
+                BlockChanger.setSectionBatchedAsynchronously(job, entry.world, BlockStore.sectionX(key),
+                        BlockStore.sectionY(key), BlockStore.sectionZ(key), blocks);
+            }
+            return BlockChanger.finishJob(job);
+        }).thenCompose(done -> done);
+    }
+
+    /**
+     * Forgets every kept paste.
+     */
+    public synchronized void clear() {
+        entries.forEach(Entry::delete);
+        entries.clear();
+    }
+
+    /**
+     * Starts recording the blocks overwritten by a paste.
+     */
+    Entry begin(World world) {
+        return new Entry(world);
+    }
+
+    /**
+     * Keeps a recorded paste, forgetting the oldest ones past the entry limit
+     * and writing the oldest ones to disk past the memory limit.
+     * A paste that recorded no section, like one cancelled before writing, is not kept.
+     */
+    synchronized void push(Entry entry) {
+        entry.recorded();
+        if (entry.isEmpty()) return;
+        entries.addLast(entry);
+        while (entries.size() > maxEntries) {
+            entries.pollFirst().delete();
+        }
+        long memory = 0;
+        for (Entry kept : entries) {
+            memory += kept.memoryUsage();
+        }
+        for (Iterator<Entry> it = entries.iterator(); memory > maxMemoryBytes && it.hasNext(); ) {
+            Entry oldest = it.next();
+            long usage = oldest.memoryUsage();
+            if (usage == 0) continue;
+            memory -= usage;
+            CompletableFuture.runAsync(oldest::spill);
+        }
+    }
+
+    /**
+     * The blocks overwritten by one paste, in world coordinates.
+     */
+    final class Entry {
+        private final World world;
+        /**
+         * Section states read while recording, only allocated until the entry is pushed
+         */
+        private int[] states;
+        private BlockStore store = new BlockStore();
+        private File file;
+        private boolean spilling;
+        private boolean deleted;
+
+        private Entry(World world) {
+            this.world = world;
+        }
+
+        /**
+         * Records the current blocks at the positions about to be written in a section.
+         * Has to be called on the main thread, right before the section is written.
+         *
+         * @param blocks The blocks about to be written, null entries are not recorded.
+         */
+        void record(int chunkX, int sectionY, int chunkZ, Material[] blocks) {
+            if (states == null) states = new int[BlockStore.SECTION_VOLUME];
+            Material[] palette = BlockChanger.canReadSections()
+                    ? BlockChanger.readSection(world, chunkX, chunkZ, sectionY << 4, states) : null;
+            char[] target = store.section(chunkX, sectionY, chunkZ, true);
+            for (int i = 0; i < BlockStore.SECTION_VOLUME; i++) {
+                if (blocks[i] == null) continue;
+                Material current;
+                if (!BlockChanger.canReadSections()) {
+                    current = world.getBlockAt((chunkX << 4) + (i & 15), (sectionY << 4) + (i >> 8),
+                            (chunkZ << 4) + ((i >> 4) & 15)).getType();
+                } else {
+                    current = palette == null ? Material.AIR : palette.length == 1 ? palette[0] : palette[states[i]];
+                }
+                target[i] = store.paletteId(current);
+            }
+        }
+
+        /**
+         * Releases the buffer used while recording, once the paste is done.
+         */
+        private synchronized void recorded() {
+            states = null;
+        }
+
+        private synchronized boolean isEmpty() {
+            return store != null && store.isEmpty();
+        }
+
+        private synchronized long memoryUsage() {
+            long buffer = states == null ? 0 : states.length * 4L;
+            return store == null || spilling ? buffer : buffer + store.memoryUsage();
+        }
+
+        /**
+         * Writes the recorded blocks to disk and releases them from memory.
+         */
+        private void spill() {
+            BlockStore spilled;
+            synchronized (this) {
+                if (store == null || spilling || deleted) return;
+                spilling = true;
+                spilled = store;
+            }
+            File spillFile = null;
+            try {
+                spillFile = File.createTempFile("tachyon-undo", ".bin", spillFolder);
+                spillFile.deleteOnExit();
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(spillFile))))) {
+                    spilled.write(out);
+                }
+            } catch (IOException e) {
+                Bukkit.getLogger().warning("Unable to write undo history to disk: " + e.getMessage());
+                if (spillFile != null) spillFile.delete();
+                spillFile = null;
+            } finally {
+                synchronized (this) {
+                    spilling = false;
+                    // The entry may have been undone or forgotten while it was written
+                    if (deleted) {
+                        if (spillFile != null) spillFile.delete();
+                    } else if (spillFile != null) {
+                        file = spillFile;
+                        store = null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the recorded blocks, reading them back from disk when they were spilled.
+         */
+        private synchronized BlockStore load() {
+            if (store != null) return store;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                return BlockStore.read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private synchronized void delete() {
+            deleted = true;
+            if (file != null) file.delete();
+        }
+    }
+
+}
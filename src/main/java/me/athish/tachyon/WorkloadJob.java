@@ -0,0 +1,161 @@
+package me.athish.tachyon;
+
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Groups the workloads queued by one operation, like a paste, in the workload queue of {@link BlockChanger}.
+ * Every job gets its own queue and jobs take turns within the shared per tick budget,
+ * each turn lasting in proportion to the job priority.
+ * A huge paste therefore slows down instead of starving the jobs queued after it.
+ * <p>
+ * Workloads can be added to a job from any thread. Once everything is queued, {@link BlockChanger#finishJob(WorkloadJob)}
+ * marks the job as finished and its single future completes after its last workload has run.
+ */
+public class WorkloadJob {
+    public static final int PRIORITY_LOW = 1;
+    public static final int PRIORITY_NORMAL = 2;
+    public static final int PRIORITY_HIGH = 4;
+
+    private final int priority;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    final Queue<BlockChanger.Workload> workloads = new ConcurrentLinkedQueue<>();
+    /**
+     * Whether the job is in the turn order of the workload queue, or about to be
+     */
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    final LongAdder queued = new LongAdder();
+    /**
+     * Only written by the main thread
+     */
+    volatile long computed;
+    volatile boolean finished;
+    volatile boolean paused;
+    volatile boolean cancelled;
+    /**
+     * The error failing the job, set along with {@link #cancelled}
+     */
+    volatile Throwable failure;
+    /**
+     * The last chunk load queued, linked to the next one
+     */
+    BlockChanger.ChunkLoadWorkload lastChunkLoad;
+    /**
+     * The chunks kept loaded for the job by world, only used on the main thread
+     */
+    final Map<World, Set<Long>> chunkTickets = new HashMap<>();
+
+    /**
+     * Creates a job with {@link #PRIORITY_NORMAL}.
+     */
+    public WorkloadJob() {
+        this(PRIORITY_NORMAL);
+    }
+
+    /**
+     * Creates a job.
+     *
+     * @param priority The weight of the job, a job with twice the priority gets twice the time per turn.
+     */
+    public WorkloadJob(int priority) {
+        if (priority < 1) throw new IllegalArgumentException("Priority must be at least 1: " + priority);
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the future of the job, completing on the main thread once the job is finished and its last workload has run,
+     * or exceptionally with the error of the first workload that failed.
+     *
+     * @return The future of the job.
+     */
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /**
+     * Gets the number of workloads queued in the job so far.
+     *
+     * @return The number of queued workloads.
+     */
+    public long getQueuedWorkloads() {
+        return queued.sum();
+    }
+
+    /**
+     * Gets the number of workloads of the job that have run.
+     *
+     * @return The number of workloads run.
+     */
+    public long getCompletedWorkloads() {
+        return computed;
+    }
+
+    /**
+     * Stops running the workloads of the job until {@link #resume()}, keeping them queued.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Drops the workloads of the job that have not run yet, and the ones queued afterwards.
+     * The future of the job completes with a {@link java.util.concurrent.CancellationException}
+     * on the main thread, once no more workload of the job can run.
+     *
+     * @return true if the job was still running.
+     */
+    public boolean cancel() {
+        if (future.isDone() || cancelled) return false;
+        cancelled = true;
+        BlockChanger.scheduleJob(this);
+        return true;
+    }
+
+    /**
+     * Fails the job from outside its workloads, like an error while preparing them off the main thread.
+     * The job is dropped like a cancelled one and its future completes exceptionally with the given error.
+     *
+     * @return true if the job was still running.
+     */
+    boolean fail(Throwable error) {
+        if (future.isDone() || cancelled) return false;
+        failure = error;
+        cancelled = true;
+        BlockChanger.scheduleJob(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Gets whether the job was finished, so no more workloads can be queued in it.
+     *
+     * @return Whether the job is finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+}
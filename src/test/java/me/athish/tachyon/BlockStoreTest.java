@@ -0,0 +1,87 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockStoreTest {
+
+    @Test
+    void roundTripsSparseAndUniformSections() throws IOException {
+        BlockStore store = new BlockStore();
+        store.set(-1, -64, -1, Material.STONE);
+        store.set(100, 70, -300, Material.GLASS);
+        store.fill(2, 3, -4, Material.DIRT);
+        store.fill(0, 0, 0, 0, 0, 0, 15, 0, 15, Material.BEDROCK);
+
+        BlockStore read = roundTrip(store);
+
+        assertEquals(store.count(), read.count());
+        assertEquals(Material.STONE, read.get(-1, -64, -1));
+        assertEquals(Material.GLASS, read.get(100, 70, -300));
+        assertEquals(Material.DIRT, read.get(32 + 5, 48 + 15, -64));
+        assertEquals(Material.BEDROCK, read.get(15, 0, 15));
+        assertNull(read.get(0, 1, 0));
+        // uniform sections stay a single element
+        assertEquals(store.memoryUsage(), read.memoryUsage());
+        assertEquals(positions(store), positions(read));
+    }
+
+    @Test
+    void refusesUnknownMaterials() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        out.writeUTF("NOT_A_MATERIAL");
+        out.writeInt(0);
+
+        assertThrows(IOException.class,
+                () -> BlockStore.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    void keysNegativeSections() {
+        long key = BlockStore.sectionKey(-5, -4, 1 << 20);
+
+        assertEquals(-5, BlockStore.sectionX(key));
+        assertEquals(-4, BlockStore.sectionY(key));
+        assertEquals(1 << 20, BlockStore.sectionZ(key));
+        assertEquals(15 << 8 | 1 << 4 | 2, BlockStore.index(-14, -1, 17));
+    }
+
+    @Test
+    void gathersShiftedSections() {
+        BlockStore store = new BlockStore();
+        store.set(15, 0, 0, Material.STONE);
+        Material[] out = new Material[BlockStore.SECTION_VOLUME];
+
+        assertTrue(store.shiftedSectionKeys(1, 0, 0).contains(BlockStore.sectionKey(1, 0, 0)));
+        assertTrue(store.shiftedSection(1, 0, 0, 1, 0, 0, out));
+        assertEquals(Material.STONE, out[BlockStore.index(16, 0, 0)]);
+    }
+
+    private static BlockStore roundTrip(BlockStore store) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.write(new DataOutputStream(bytes));
+        return BlockStore.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static Map<String, Material> positions(BlockStore store) {
+        Map<String, Material> positions = new HashMap<>();
+        store.forEach((x, y, z, material) -> positions.put(x + "," + y + "," + z, material));
+        return positions;
+    }
+
+}
@@ -0,0 +1,162 @@
+package me.athish.tachyon;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkFormatTest {
+    /**
+     * 1.12.2, numeric ids
+     */
+    private static final int LEGACY = 1343;
+
+    @Test
+    void roundTripsLegacySections() {
+        ChunkFormat.Section section = ChunkFormat.create(2, LEGACY);
+        Random random = new Random(1);
+        int[] expected = new int[BlockStore.SECTION_VOLUME];
+        for (int i = 0; i < expected.length; i++) {
+            // ids above 255 go to the "Add" nibbles
+            expected[i] = random.nextInt(4096) << 4 | random.nextInt(16);
+        }
+        System.arraycopy(expected, 0, section.states, 0, expected.length);
+
+        ChunkFormat.encode(section, LEGACY);
+        ChunkFormat.Section decoded = ChunkFormat.decode(section.tag, LEGACY);
+
+        assertNull(decoded.palette);
+        assertArrayEquals(expected, decoded.states);
+    }
+
+    @Test
+    void roundTripsFlatteningSections() {
+        assertPaletteRoundTrip(ChunkFormat.FLATTENING);
+    }
+
+    @Test
+    void roundTripsPaddedSections() {
+        assertPaletteRoundTrip(ChunkFormat.PADDED_STATES);
+    }
+
+    @Test
+    void roundTripsSectionsWithoutLevel() {
+        assertPaletteRoundTrip(ChunkFormat.NO_LEVEL);
+    }
+
+    @Test
+    void dropsUnusedPaletteEntries() {
+        ChunkFormat.Section section = ChunkFormat.create(0, ChunkFormat.NO_LEVEL);
+        section.palette.add(named("minecraft:stone"));
+
+        ChunkFormat.encode(section, ChunkFormat.NO_LEVEL);
+
+        Map<String, Object> container = Nbt.compound(section.tag, "block_states");
+        assertEquals(1, Nbt.list(container, "palette").size());
+        // a single state section needs no data
+        assertFalse(container.containsKey("data"));
+    }
+
+    @Test
+    void findsSectionsWhereTheVersionKeepsThem() {
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        Map<String, Object> level = new LinkedHashMap<>();
+        chunk.put("Level", level);
+
+        ChunkFormat.addSection(ChunkFormat.level(chunk, ChunkFormat.FLATTENING), ChunkFormat.FLATTENING,
+                ChunkFormat.create(-1, ChunkFormat.FLATTENING).tag);
+        ChunkFormat.addSection(ChunkFormat.level(chunk, ChunkFormat.NO_LEVEL), ChunkFormat.NO_LEVEL,
+                ChunkFormat.create(3, ChunkFormat.NO_LEVEL).tag);
+
+        assertTrue(ChunkFormat.sections(level, ChunkFormat.FLATTENING).containsKey(-1));
+        assertTrue(ChunkFormat.sections(chunk, ChunkFormat.NO_LEVEL).containsKey(3));
+    }
+
+    @Test
+    void readsEmptySectionsAsNull() {
+        assertNull(ChunkFormat.decode(new LinkedHashMap<>(), LEGACY));
+        assertNull(ChunkFormat.decode(new LinkedHashMap<>(), ChunkFormat.FLATTENING));
+        assertNull(ChunkFormat.decode(new LinkedHashMap<>(), ChunkFormat.NO_LEVEL));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void resolvesLegacyIds() throws IOException {
+        ChunkFormat.Section section = ChunkFormat.create(0, LEGACY);
+
+        int state = ChunkFormat.state(section, Material.STONE, new HashMap<>());
+
+        assertEquals(Material.STONE.getId() << 4, state);
+        assertEquals(Material.STONE, ChunkFormat.material(section, state | 5));
+    }
+
+    @Test
+    void reusesPaletteEntries() throws IOException {
+        ChunkFormat.Section section = ChunkFormat.create(0, ChunkFormat.NO_LEVEL);
+        Map<Material, Integer> cache = new HashMap<>();
+
+        int stone = ChunkFormat.state(section, Material.STONE, cache);
+
+        assertEquals(1, stone);
+        assertEquals(stone, ChunkFormat.state(section, Material.STONE, new HashMap<>()));
+        assertEquals(0, ChunkFormat.state(section, Material.AIR, cache));
+        assertEquals(2, section.palette.size());
+    }
+
+    @Test
+    void refusesUnknownBlocks() {
+        assertThrows(IOException.class, () -> ChunkFormat.material("minecraft:not_a_block"));
+    }
+
+    @Test
+    void refusesChunksFromTheOtherSideOfTheFlattening() throws IOException {
+        // the declared Bukkit API predates the flattening
+        ChunkFormat.checkVersion(LEGACY);
+        assertThrows(IOException.class, () -> ChunkFormat.checkVersion(ChunkFormat.NO_LEVEL));
+    }
+
+    private static void assertPaletteRoundTrip(int dataVersion) {
+        ChunkFormat.Section section = ChunkFormat.create(0, dataVersion);
+        // 20 entries need 5 bits, so values span longs before padded states
+        for (int i = 1; i < 20; i++) {
+            section.palette.add(named("minecraft:block_" + i));
+        }
+        Random random = new Random(dataVersion);
+        String[] expected = new String[BlockStore.SECTION_VOLUME];
+        for (int i = 0; i < expected.length; i++) {
+            section.states[i] = random.nextInt(section.palette.size());
+            expected[i] = name(section, section.states[i]);
+        }
+
+        ChunkFormat.encode(section, dataVersion);
+        ChunkFormat.Section decoded = ChunkFormat.decode(section.tag, dataVersion);
+
+        String[] actual = new String[BlockStore.SECTION_VOLUME];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = name(decoded, decoded.states[i]);
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    private static Map<String, Object> named(String name) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("Name", name);
+        return state;
+    }
+
+    private static String name(ChunkFormat.Section section, int state) {
+        return (String) ((Map<?, ?>) section.palette.get(state)).get("Name");
+    }
+
+}
@@ -0,0 +1,105 @@
+package me.athish.tachyon;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtTest {
+
+    @Test
+    void roundTripsEveryTagType() throws IOException {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("Name", "minecraft:stone");
+        Nbt.ListTag compounds = new Nbt.ListTag(Nbt.TAG_COMPOUND);
+        compounds.add(nested);
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("byte", (byte) -3);
+        root.put("short", (short) 1234);
+        root.put("int", 123456);
+        root.put("long", 1L << 40);
+        root.put("float", 1.5F);
+        root.put("double", -2.25D);
+        root.put("bytes", new byte[] { 1, 2, 3 });
+        root.put("string", "text");
+        root.put("list", compounds);
+        root.put("compound", nested);
+        root.put("ints", new int[] { -1, 0, 1 });
+        root.put("longs", new long[] { Long.MIN_VALUE, Long.MAX_VALUE });
+
+        Map<String, Object> read = roundTrip(root);
+
+        assertEquals(root.keySet(), read.keySet());
+        assertEquals((byte) -3, read.get("byte"));
+        assertEquals((short) 1234, read.get("short"));
+        assertEquals(123456, read.get("int"));
+        assertEquals(1L << 40, read.get("long"));
+        assertEquals(1.5F, read.get("float"));
+        assertEquals(-2.25D, read.get("double"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) read.get("bytes"));
+        assertEquals("text", read.get("string"));
+        assertEquals(nested, Nbt.compound(read, "compound"));
+        assertArrayEquals(new int[] { -1, 0, 1 }, (int[]) read.get("ints"));
+        assertArrayEquals(new long[] { Long.MIN_VALUE, Long.MAX_VALUE }, (long[]) read.get("longs"));
+
+        Nbt.ListTag list = Nbt.list(read, "list");
+        assertEquals(Nbt.TAG_COMPOUND, list.elementType);
+        assertEquals(1, list.compounds().size());
+        assertEquals("minecraft:stone", list.compounds().get(0).get("Name"));
+    }
+
+    @Test
+    void keepsTheElementTypeOfEmptyLists() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("entities", new Nbt.ListTag(Nbt.TAG_COMPOUND));
+
+        Nbt.ListTag list = Nbt.list(roundTrip(root), "entities");
+
+        assertTrue(list.isEmpty());
+        assertEquals(Nbt.TAG_COMPOUND, list.elementType);
+    }
+
+    @Test
+    void readsNumbersOfAnyType() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("byte", (byte) 4);
+        root.put("long", 5L);
+
+        assertEquals(4, Nbt.getInt(root, "byte", -1));
+        assertEquals(5, Nbt.getInt(root, "long", -1));
+        assertEquals(-1, Nbt.getInt(root, "missing", -1));
+    }
+
+    @Test
+    void refusesValuesWithoutTag() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("value", new Object());
+
+        assertThrows(IOException.class, () -> Nbt.write(new DataOutputStream(new ByteArrayOutputStream()), root));
+    }
+
+    @Test
+    void refusesRootsOtherThanCompounds() {
+        byte[] data = { Nbt.TAG_INT, 0, 0, 0, 0, 0, 1 };
+
+        assertThrows(IOException.class, () -> Nbt.read(new DataInputStream(new ByteArrayInputStream(data))));
+    }
+
+    private static Map<String, Object> roundTrip(Map<String, Object> root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Nbt.write(new DataOutputStream(bytes), root);
+        return Nbt.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+}
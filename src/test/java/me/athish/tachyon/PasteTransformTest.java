@@ -0,0 +1,63 @@
+package me.athish.tachyon;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasteTransformTest {
+
+    @Test
+    void rotatesClockwiseSeenFromAbove() {
+        PasteTransform transform = PasteTransform.of(1, false, false);
+
+        // east turns south, south turns west
+        assertPosition(0, 1, transform, 1, 0);
+        assertPosition(-1, 0, transform, 0, 1);
+    }
+
+    @Test
+    void rotatesHalfAndThreeQuarterTurns() {
+        assertPosition(-2, -3, PasteTransform.of(2, false, false), 2, 3);
+        assertPosition(3, -2, PasteTransform.of(3, false, false), 2, 3);
+    }
+
+    @Test
+    void wrapsRotations() {
+        for (int x = -2; x <= 2; x++) {
+            for (int z = -2; z <= 2; z++) {
+                PasteTransform counterclockwise = PasteTransform.of(-1, false, false);
+                PasteTransform threeQuarters = PasteTransform.of(3, false, false);
+                assertEquals(threeQuarters.x(x, z), counterclockwise.x(x, z));
+                assertEquals(threeQuarters.z(x, z), counterclockwise.z(x, z));
+                assertPosition(x, z, PasteTransform.of(4, false, false), x, z);
+            }
+        }
+        assertTrue(PasteTransform.of(-4, false, false).isIdentity());
+    }
+
+    @Test
+    void mirrorsAfterRotating() {
+        PasteTransform transform = PasteTransform.of(1, true, false);
+
+        assertPosition(0, 1, transform, 1, 0);
+        assertPosition(2, 0, transform, 0, 2);
+        assertEquals(5, transform.y(5));
+    }
+
+    @Test
+    void flipsVertically() {
+        PasteTransform transform = PasteTransform.of(0, false, true);
+
+        assertFalse(transform.isIdentity());
+        assertEquals(-5, transform.y(5));
+        assertPosition(3, 4, transform, 3, 4);
+    }
+
+    private static void assertPosition(int expectedX, int expectedZ, PasteTransform transform, int x, int z) {
+        assertEquals(expectedX, transform.x(x, z));
+        assertEquals(expectedZ, transform.z(x, z));
+    }
+
+}
@@ -0,0 +1,103 @@
+package me.athish.tachyon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionFileTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void indexesChunksWithinTheirRegion() {
+        assertEquals(0, RegionFile.index(0, 0));
+        assertEquals(31, RegionFile.index(-1, 0));
+        assertEquals(32 * 31 + 1, RegionFile.index(33, -1));
+        assertEquals("r.-1.2.mca", RegionFile.file(folder.toFile(), -1, 2).getName());
+    }
+
+    @Test
+    void writesTheSectorTable() throws IOException {
+        File target = RegionFile.file(folder.toFile(), 0, 0);
+        byte[][] chunks = new byte[RegionFile.CHUNKS][];
+        int[] timestamps = new int[RegionFile.CHUNKS];
+        chunks[3] = new byte[100];
+        // 4 length bytes push 4093 bytes of data into a second sector
+        chunks[7] = new byte[4093];
+        timestamps[7] = 42;
+
+        RegionFile.write(target, chunks, timestamps);
+
+        try (RandomAccessFile file = new RandomAccessFile(target, "r")) {
+            file.seek(3 * 4);
+            assertEquals(2 << 8 | 1, file.readInt());
+            file.seek(7 * 4);
+            assertEquals(3 << 8 | 2, file.readInt());
+            assertEquals(5 * 4096, file.length());
+        }
+        try (RegionFile region = new RegionFile(target)) {
+            assertTrue(region.hasChunk(3));
+            assertFalse(region.hasChunk(4));
+            assertEquals(42, region.timestamp(7));
+            assertNull(region.readRaw(4));
+        }
+        assertFalse(new File(target.getParentFile(), target.getName() + ".tmp").exists());
+    }
+
+    @Test
+    void copiesStoredChunksAsTheyAre() throws IOException {
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        chunk.put("DataVersion", 2975);
+        chunk.put("xPos", -4);
+        byte[] raw = RegionFile.compress(chunk);
+        File source = RegionFile.file(folder.toFile(), 0, 0);
+        File copy = RegionFile.file(folder.toFile(), 1, 0);
+        byte[][] chunks = new byte[RegionFile.CHUNKS][];
+        chunks[RegionFile.index(-4, 9)] = raw;
+        RegionFile.write(source, chunks, new int[RegionFile.CHUNKS]);
+
+        byte[][] copied = new byte[RegionFile.CHUNKS][];
+        try (RegionFile region = new RegionFile(source)) {
+            for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                copied[i] = region.readRaw(i);
+            }
+        }
+        RegionFile.write(copy, copied, new int[RegionFile.CHUNKS]);
+
+        try (RegionFile region = new RegionFile(copy)) {
+            assertArrayEquals(raw, region.readRaw(RegionFile.index(-4, 9)));
+            assertEquals(chunk, region.readChunk(RegionFile.index(-4, 9)));
+        }
+    }
+
+    @Test
+    void readsEmptyFilesAsHavingNoChunk() throws IOException {
+        File target = folder.resolve("r.0.0.mca").toFile();
+        assertTrue(target.createNewFile());
+
+        try (RegionFile region = new RegionFile(target)) {
+            assertFalse(region.hasChunk(0));
+            assertNull(region.readChunk(0));
+        }
+    }
+
+    @Test
+    void refusesUnknownCompressions() {
+        assertThrows(IOException.class, () -> RegionFile.decompress(new byte[] { 9, 0 }));
+        assertThrows(IOException.class, () -> RegionFile.decompress(new byte[] { (byte) (128 | 2), 0 }));
+    }
+
+}
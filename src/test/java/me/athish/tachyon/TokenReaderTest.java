@@ -0,0 +1,59 @@
+package me.athish.tachyon;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenReaderTest {
+
+    @Test
+    void readsTokensAcrossLines() throws IOException {
+        TokenReader reader = new TokenReader(new StringReader("STONE,12,\r\n-3,\nGLASS"));
+
+        assertEquals("STONE", reader.next());
+        assertEquals(12, reader.nextInt());
+        assertEquals(-3, reader.nextInt());
+        assertTrue(reader.hasNext());
+        assertEquals("GLASS", reader.next());
+        assertFalse(reader.hasNext());
+        assertThrows(EOFException.class, reader::next);
+    }
+
+    @Test
+    void readsTokensSpanningTheBuffer() throws IOException {
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            file.append(i).append(',');
+        }
+        TokenReader reader = new TokenReader(new StringReader(file.toString()));
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, reader.nextInt());
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void skipsTokens() throws IOException {
+        TokenReader reader = new TokenReader(new StringReader("a,b,c,d"));
+
+        reader.skip(3);
+
+        assertEquals("d", reader.next());
+    }
+
+    @Test
+    void refusesInvalidNumbers() {
+        assertThrows(NumberFormatException.class, () -> new TokenReader(new StringReader("1a,")).nextInt());
+        assertThrows(NumberFormatException.class, () -> new TokenReader(new StringReader(",")).nextInt());
+        assertThrows(EOFException.class, () -> new TokenReader(new StringReader("\n")).nextInt());
+    }
+
+}